@@ -0,0 +1,122 @@
+package com.example.android.sunshine.activities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.PreferencesSnapshot;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherBatch;
+import com.example.android.sunshine.utilities.FriendlyDateRenderer;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the rows {@link ForecastAdapter} formats when they are bound, whether fresh or
+ * out of its cache, are exactly the lines you get by formatting every day of the forecast up
+ * front with the same helpers, and that they follow a change of locale.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ForecastAdapterTest {
+
+    /* More days than the adapter keeps, so its cache slots get reused */
+    private static final int DAY_COUNT = 80;
+
+    private Context mContext;
+    private WeatherBatch mWeather;
+    private ForecastAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        Random random = new Random(42);
+        long today = SunshineDateUtils.getNormalizedToday();
+        mWeather = new WeatherBatch();
+        for (int i = 0; i < DAY_COUNT; i++) {
+            double high = (random.nextDouble() - 0.4) * 60;
+            /* Every condition code the table knows about, and some it doesn't */
+            mWeather.add(today + i * SunshineDateUtils.DAY_IN_MILLIS, 200 + random.nextInt(800),
+                    high - random.nextDouble() * 15, high, 50, 1000, 3, 90);
+        }
+        mAdapter = new ForecastAdapter(mContext, null);
+        mAdapter.setWeatherData(mWeather);
+    }
+
+    /* Every day formatted up front, one at a time, with the condition label for its code */
+    private String[] upFrontRows() {
+        String[] weatherData = new String[mWeather.size()];
+        PreferencesSnapshot prefs = SunshinePreferences.getSnapshot(mContext);
+        FriendlyDateRenderer dates = SunshineDateUtils.getDateRenderer(mContext);
+        dates.beginBatch(System.currentTimeMillis());
+        for (int i = 0; i < mWeather.size(); i++) {
+            String date = dates.render(mWeather.getDate(i), false);
+            String description = SunshineWeatherUtils.getStringForWeatherCondition(mContext,
+                    mWeather.getWeatherId(i));
+            String highAndLow = SunshineWeatherUtils.formatHighLows(mContext, prefs,
+                    mWeather.getMaxTemp(i), mWeather.getMinTemp(i));
+            weatherData[i] = date + " - " + description + " - " + highAndLow;
+        }
+        return weatherData;
+    }
+
+    @Test
+    public void testRowsMatchUpFrontFormatting() {
+        String[] expected = upFrontRows();
+        assertEquals(expected.length, mAdapter.getItemCount());
+
+        /* Scrolling down, back up, then jumping about, so rows come fresh and from the cache */
+        for (int i = 0; i < DAY_COUNT; i++) {
+            assertEquals("Day " + i, expected[i], mAdapter.getRow(i));
+        }
+        for (int i = DAY_COUNT - 1; i >= 0; i--) {
+            assertEquals("Day " + i, expected[i], mAdapter.getRow(i));
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            int position = random.nextInt(DAY_COUNT);
+            assertEquals("Day " + position, expected[position], mAdapter.getRow(position));
+        }
+    }
+
+    @Test
+    public void testRowsAreCachedUntilTheirSlotIsReused() {
+        String row = mAdapter.getRow(3);
+        assertSame(row, mAdapter.getRow(3));
+
+        /* Day 35 lands in the same slot, so day 3 has to be formatted again */
+        mAdapter.getRow(35);
+        String again = mAdapter.getRow(3);
+        assertNotSame(row, again);
+        assertEquals(row, again);
+
+        /* A new forecast drops every cached row */
+        mAdapter.setWeatherData(mWeather);
+        assertNotSame(again, mAdapter.getRow(3));
+    }
+
+    @Test
+    public void testRowsFollowTheLocale() {
+        Locale saved = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            String row = mAdapter.getRow(3);
+            assertSame(row, mAdapter.getRow(3));
+
+            Locale.setDefault(Locale.FRANCE);
+            assertNotSame(row, mAdapter.getRow(3));
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+}
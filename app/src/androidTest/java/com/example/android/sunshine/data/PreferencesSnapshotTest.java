@@ -0,0 +1,135 @@
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link SunshinePreferences#getSnapshot} follows changes to the units setting, and
+ * measures formatting a row's high and low with the snapshot against the SharedPreferences
+ * lookups it replaced. The times are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PreferencesSnapshotTest {
+
+    private static final String TAG = PreferencesSnapshotTest.class.getSimpleName();
+
+    private static final int ROW_COUNT = 10000;
+
+    /* How long to wait for the change listener, which runs on the main thread */
+    private static final long UPDATE_WAIT_MILLIS = 2000;
+
+    private Context mContext;
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.temp_units_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+
+        /* Start from metric whatever the device was on, so switching to imperial is a change */
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_unit_metric)).commit();
+        long deadline = SystemClock.elapsedRealtime() + UPDATE_WAIT_MILLIS;
+        while (!SunshinePreferences.getSnapshot(mContext).isMetric()
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertTrue(SunshinePreferences.getSnapshot(mContext).isMetric());
+    }
+
+    @After
+    public void tearDown() {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedUnits == null) {
+            editor.remove(mUnitsKey);
+        } else {
+            editor.putString(mUnitsKey, mSavedUnits);
+        }
+        editor.commit();
+    }
+
+    /* Sets the units and waits for a snapshot newer than the given one */
+    private PreferencesSnapshot setUnits(int unitsId, PreferencesSnapshot previous) {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(unitsId)).commit();
+        long deadline = SystemClock.elapsedRealtime() + UPDATE_WAIT_MILLIS;
+        PreferencesSnapshot snapshot = SunshinePreferences.getSnapshot(mContext);
+        while (snapshot.getVersion() == previous.getVersion()
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(10);
+            snapshot = SunshinePreferences.getSnapshot(mContext);
+        }
+        return snapshot;
+    }
+
+    /* How isMetric read the setting before the snapshot, with the comparison fixed */
+    private boolean isMetricUncached() {
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String units = pref.getString(mContext.getString(R.string.temp_units_key),
+                mContext.getString(R.string.pref_unit_metric));
+        return mContext.getString(R.string.pref_unit_metric).equals(units);
+    }
+
+    @Test
+    public void testSnapshotFollowsUnits() {
+        PreferencesSnapshot first = SunshinePreferences.getSnapshot(mContext);
+        assertSame(first, SunshinePreferences.getSnapshot(mContext));
+        assertTrue(first.isMetric());
+
+        PreferencesSnapshot imperial = setUnits(R.string.pref_unit_imperial, first);
+        assertTrue(imperial.getVersion() > first.getVersion());
+        assertFalse(imperial.isMetric());
+        assertFalse(SunshinePreferences.isMetric(mContext));
+
+        PreferencesSnapshot metric = setUnits(R.string.pref_unit_metric, imperial);
+        assertTrue(metric.getVersion() > imperial.getVersion());
+        assertTrue(metric.isMetric());
+        assertTrue(SunshinePreferences.isMetric(mContext));
+        /* Snapshots already handed out don't change */
+        assertFalse(imperial.isMetric());
+    }
+
+    @Test
+    public void benchmarkRowFormatting() {
+        PreferencesSnapshot prefs = SunshinePreferences.getSnapshot(mContext);
+        assertEquals(isMetricUncached(), prefs.isMetric());
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            /* Two lookups a row, once for the high and once for the low */
+            isMetricUncached();
+            isMetricUncached();
+            SunshineWeatherUtils.formatHighLows(mContext, prefs, 20 + i % 10, 10 + i % 10);
+        }
+        long lookupMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            SunshineWeatherUtils.formatHighLows(mContext, prefs, 20 + i % 10, 10 + i % 10);
+        }
+        long snapshotMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, ROW_COUNT + " rows: " + lookupMillis + "ms looking the units up per row, "
+                + snapshotMillis + "ms with a snapshot");
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+
+/**
+ * A row in the location table for a test to write weather under. It isn't a real place, so a
+ * real forecast is never overwritten. It is created and deleted through the provider, so the
+ * provider's row cache never holds on to its weather after the test.
+ */
+final class TestLocation {
+
+    private final ContentResolver mResolver;
+    private final String mSetting;
+
+    /**
+     * @param resolver Reaches the provider
+     * @param setting  The location setting to store, different for each test class so that
+     *                 classes running one after another don't share rows
+     */
+    TestLocation(ContentResolver resolver, String setting) {
+        mResolver = resolver;
+        mSetting = setting;
+    }
+
+    /**
+     * Deletes anything left over from an earlier run, then adds the location afresh.
+     *
+     * @return The new location's _ID
+     */
+    long create() {
+        delete();
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, mSetting);
+        return ContentUris.parseId(
+                mResolver.insert(WeatherContract.LocationEntry.CONTENT_URI, location));
+    }
+
+    /**
+     * Deletes the location, and with it all of its weather.
+     */
+    void delete() {
+        mResolver.delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{mSetting});
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link WeatherProvider#applyBatch} is all or nothing, that it and
+ * {@link WeatherProvider#bulkInsert} notify once, and measures a batch of inserts against the
+ * same inserts made one at a time. The times are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherApplyBatchTest {
+
+    private static final String TAG = WeatherApplyBatchTest.class.getSimpleName();
+
+    private static final String TEST_LOCATION = "apply batch test";
+
+    private static final int ROW_COUNT = 500;
+
+    /* How long to wait for notifications that shouldn't come */
+    private static final long NOTIFY_WAIT_MILLIS = 500;
+
+    private ContentResolver mResolver;
+    private TestLocation mLocation;
+    private long mLocationId;
+    private long mFirstDay;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mLocation = new TestLocation(mResolver, TEST_LOCATION);
+        mLocationId = mLocation.create();
+        mFirstDay = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+    }
+
+    @After
+    public void tearDown() {
+        mLocation.delete();
+    }
+
+    private ContentValues day(int day, double maxTemp) {
+        WeatherBatch weather = new WeatherBatch(1);
+        weather.add(mFirstDay + day * SunshineDateUtils.DAY_IN_MILLIS, 800, 0, maxTemp,
+                50, 1010, 3.5, 90);
+        return weather.toContentValues()[0];
+    }
+
+    private Uri locationWeatherUri() {
+        return WeatherContract.WeatherEntry.buildWeatherUriForLocation(mLocationId);
+    }
+
+    private int countDays() {
+        Cursor cursor = mResolver.query(locationWeatherUri(), null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private ArrayList<ContentProviderOperation> insertOperations() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            operations.add(ContentProviderOperation.newInsert(locationWeatherUri())
+                    .withValues(day(i, 20))
+                    .build());
+        }
+        return operations;
+    }
+
+    @Test
+    public void testFailedBatchWritesNothing() throws Exception {
+        ArrayList<ContentProviderOperation> operations = insertOperations();
+        /* Fails: there is no day before the first */
+        operations.add(ContentProviderOperation.newUpdate(
+                WeatherContract.WeatherEntry.buildWeatherUriForLocationWithDate(mLocationId,
+                        mFirstDay - SunshineDateUtils.DAY_IN_MILLIS))
+                .withValues(day(-1, 30))
+                .withExpectedCount(1)
+                .build());
+        try {
+            mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("The batch should have failed");
+        } catch (OperationApplicationException expected) {
+            /* Nothing from the batch should have been kept */
+        }
+        assertEquals(0, countDays());
+    }
+
+    /**
+     * An assert query inside the batch reads, and caches, rows that are then rolled back. They
+     * mustn't be served from the cache afterwards.
+     */
+    @Test
+    public void testFailedBatchLeavesNothingCached() throws Exception {
+        ArrayList<ContentProviderOperation> operations = insertOperations();
+        operations.add(ContentProviderOperation.newAssertQuery(locationWeatherUri())
+                .withExpectedCount(ROW_COUNT)
+                .build());
+        /* Fails: there is no day before the first */
+        operations.add(ContentProviderOperation.newUpdate(
+                WeatherContract.WeatherEntry.buildWeatherUriForLocationWithDate(mLocationId,
+                        mFirstDay - SunshineDateUtils.DAY_IN_MILLIS))
+                .withValues(day(-1, 30))
+                .withExpectedCount(1)
+                .build());
+        try {
+            mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("The batch should have failed");
+        } catch (OperationApplicationException expected) {
+            /* The assert query passed, so only the update failed */
+        }
+        assertEquals(0, countDays());
+    }
+
+    @Test
+    public void testMixedBatchNotifiesOnce() throws Exception {
+        final AtomicInteger notifications = new AtomicInteger();
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+            }
+        };
+
+        ArrayList<ContentProviderOperation> operations = insertOperations();
+        operations.add(ContentProviderOperation.newUpdate(
+                WeatherContract.WeatherEntry.buildWeatherUriForLocationWithDate(mLocationId,
+                        mFirstDay))
+                .withValue(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 25)
+                .build());
+        operations.add(ContentProviderOperation.newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                                + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[]{Long.toString(mLocationId), Long.toString(
+                                mFirstDay + SunshineDateUtils.DAY_IN_MILLIS)})
+                .build());
+
+        mResolver.registerContentObserver(WeatherContract.WeatherEntry.CONTENT_URI, true,
+                observer);
+        try {
+            mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            SystemClock.sleep(NOTIFY_WAIT_MILLIS);
+        } finally {
+            mResolver.unregisterContentObserver(observer);
+        }
+
+        assertEquals(1, notifications.get());
+        assertEquals(ROW_COUNT - 1, countDays());
+    }
+
+    /**
+     * A sync writes many days at once through bulkInsert; whoever watches the weather should
+     * hear about it once, not once per day.
+     */
+    @Test
+    public void testBulkInsertNotifiesOnce() throws Exception {
+        final AtomicInteger notifications = new AtomicInteger();
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+            }
+        };
+        ContentValues[] days = new ContentValues[14];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = day(i, 20);
+        }
+
+        mResolver.registerContentObserver(WeatherContract.WeatherEntry.CONTENT_URI, true,
+                observer);
+        try {
+            assertEquals(days.length, mResolver.bulkInsert(locationWeatherUri(), days));
+            SystemClock.sleep(NOTIFY_WAIT_MILLIS);
+            assertEquals(1, notifications.get());
+
+            /* Nothing changed the second time, so nothing to tell */
+            assertEquals(0, mResolver.bulkInsert(locationWeatherUri(), days));
+            SystemClock.sleep(NOTIFY_WAIT_MILLIS);
+            assertEquals(1, notifications.get());
+        } finally {
+            mResolver.unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void benchmarkBatchAgainstSingleInserts() throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            mResolver.insert(locationWeatherUri(), day(i, 20));
+        }
+        long singleMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROW_COUNT, countDays());
+
+        mResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                new String[]{Long.toString(mLocationId)});
+
+        ArrayList<ContentProviderOperation> operations = insertOperations();
+        start = SystemClock.elapsedRealtime();
+        mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        long batchMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROW_COUNT, countDays());
+
+        Log.i(TAG, ROW_COUNT + " inserts: " + singleMillis + "ms one at a time, "
+                + batchMillis + "ms in one applyBatch");
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures rows per second for a multi-year history import, through
+ * {@link WeatherProvider#bulkInsert} and through the per-row SQLiteDatabase.insert it replaced.
+ * The rates are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherBulkInsertBenchmark {
+
+    private static final String TAG = WeatherBulkInsertBenchmark.class.getSimpleName();
+
+    /* About 55 years of days */
+    private static final int ROW_COUNT = 20000;
+
+    private static final String TEST_LOCATION = "benchmark";
+
+    private Context mContext;
+    private WeatherDBHelper mDbHelper;
+    private TestLocation mLocation;
+    private long mLocationId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new WeatherDBHelper(mContext);
+        deleteAllWeather();
+        mLocation = new TestLocation(mContext.getContentResolver(), TEST_LOCATION);
+        mLocationId = mLocation.create();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllWeather();
+        mLocation.delete();
+        mDbHelper.close();
+    }
+
+    private void deleteAllWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private static ContentValues[] history() {
+        long firstDay = SunshineDateUtils.normalizeDate(System.currentTimeMillis())
+                - ROW_COUNT * SunshineDateUtils.DAY_IN_MILLIS;
+        WeatherBatch weather = new WeatherBatch(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            weather.add(firstDay + i * SunshineDateUtils.DAY_IN_MILLIS, 800 + i % 5,
+                    i % 20, 10 + i % 20, 50, 1010, 3.5, i % 360);
+        }
+        return weather.toContentValues();
+    }
+
+    @Test
+    public void benchmarkBulkInsert() {
+        ContentValues[] values = history();
+
+        long start = SystemClock.elapsedRealtime();
+        int inserted = mContext.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.buildWeatherUriForLocation(mLocationId), values);
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        assertEquals(ROW_COUNT, inserted);
+        Log.i(TAG, "bulkInsert: " + ROW_COUNT + " rows in " + elapsed + "ms, "
+                + (ROW_COUNT * 1000L / elapsed) + " rows/s");
+    }
+
+    @Test
+    public void benchmarkPerRowInsert() {
+        ContentValues[] values = history();
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        long start = SystemClock.elapsedRealtime();
+        int inserted = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                value.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID, mLocationId);
+                if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    inserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        assertEquals(ROW_COUNT, inserted);
+        Log.i(TAG, "SQLiteDatabase.insert: " + ROW_COUNT + " rows in " + elapsed + "ms, "
+                + (ROW_COUNT * 1000L / elapsed) + " rows/s");
+    }
+}
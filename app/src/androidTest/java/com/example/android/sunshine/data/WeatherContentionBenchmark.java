@@ -0,0 +1,118 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long the list query takes while a large import is being written through
+ * {@link WeatherProvider#bulkInsert} on another thread. The latencies are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherContentionBenchmark {
+
+    private static final String TAG = WeatherContentionBenchmark.class.getSimpleName();
+
+    private static final int ROW_COUNT = 20000;
+    private static final int MAX_QUERIES = 1000;
+
+    private static final String TEST_LOCATION = "benchmark";
+
+    private Context mContext;
+    private TestLocation mLocation;
+    private long mLocationId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        deleteAllWeather();
+        mLocation = new TestLocation(mContext.getContentResolver(), TEST_LOCATION);
+        mLocationId = mLocation.create();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllWeather();
+        mLocation.delete();
+    }
+
+    private void deleteAllWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private static ContentValues[] history() {
+        long firstDay = SunshineDateUtils.normalizeDate(System.currentTimeMillis())
+                - (ROW_COUNT - 14) * SunshineDateUtils.DAY_IN_MILLIS;
+        WeatherBatch weather = new WeatherBatch(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            weather.add(firstDay + i * SunshineDateUtils.DAY_IN_MILLIS, 800 + i % 5,
+                    i % 20, 10 + i % 20, 50, 1010, 3.5, i % 360);
+        }
+        return weather.toContentValues();
+    }
+
+    private long queryForecast() {
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherUriForLocation(mLocationId),
+                null,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    @Test
+    public void benchmarkQueriesDuringBulkInsert() throws Exception {
+        final ContentValues[] values = history();
+        final AtomicBoolean ingesting = new AtomicBoolean(true);
+        final long[] ingestMillis = new long[1];
+
+        Thread ingest = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                mContext.getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.buildWeatherUriForLocation(mLocationId),
+                        values);
+                ingestMillis[0] = SystemClock.elapsedRealtime() - start;
+                ingesting.set(false);
+            }
+        });
+        ingest.start();
+
+        long[] latencies = new long[MAX_QUERIES];
+        int queries = 0;
+        while (ingesting.get() && queries < MAX_QUERIES) {
+            latencies[queries++] = queryForecast();
+        }
+        ingest.join();
+
+        assertTrue("No queries ran during the import", queries > 0);
+        Arrays.sort(latencies, 0, queries);
+        Log.i(TAG, "Import of " + ROW_COUNT + " rows took " + ingestMillis[0] + "ms; "
+                + queries + " queries ran alongside it, median "
+                + latencies[queries / 2] + "ms, max " + latencies[queries - 1] + "ms");
+    }
+}
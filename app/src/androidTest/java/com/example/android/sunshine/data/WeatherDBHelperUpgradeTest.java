@@ -0,0 +1,198 @@
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds populated databases with the layout each earlier version of the app gave them, opens
+ * them with the current {@link WeatherDBHelper}, and checks that every row survives the upgrade
+ * and the schema ends up the same as a fresh install's.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherDBHelperUpgradeTest {
+
+    private static final String TAG = WeatherDBHelperUpgradeTest.class.getSimpleName();
+
+    private static final String UPGRADE_DATABASE = "weather-upgrade-test.db";
+    private static final String FRESH_DATABASE = "weather-fresh-test.db";
+
+    private static final int ROW_COUNT = 5000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    /*
+     * The weather table as each earlier version laid it out. Version 3's own SQL ran the column
+     * names into their types ("_idINTEGER PRIMARY KEY AUTOINCREMENT"), which SQLite rejects, so
+     * its onCreate could never finish and no database was left at version 3 by it. The layout
+     * it meant is used instead.
+     */
+    private static final String CREATE_TABLE_V3 = "CREATE TABLE weather(" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, date INTEGER NOT NULL, " +
+            "weather_id INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL,  UNIQUE ( date) ON CONFLICT REPLACE );";
+    private static final String CREATE_TABLE_V4 = "CREATE TABLE weather(" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, date INTEGER NOT NULL, " +
+            "weather_id INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL,  UNIQUE ( date));";
+    private static final String CREATE_TABLE_V5 = "CREATE TABLE weather(" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, date INTEGER NOT NULL, " +
+            "weather_id INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL);";
+    private static final String CREATE_INDEX_V5 =
+            "CREATE UNIQUE INDEX weather_date_idx ON weather (date);";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        deleteDatabases();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDatabases();
+    }
+
+    private void deleteDatabases() {
+        mContext.deleteDatabase(UPGRADE_DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+    }
+
+    private void createOldDatabase(int version, String... schema) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(UPGRADE_DATABASE, Context.MODE_PRIVATE, null);
+        try {
+            for (String statement : schema) {
+                db.execSQL(statement);
+            }
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < ROW_COUNT; i++) {
+                    db.execSQL("INSERT INTO weather (date, weather_id, min, max, humidity, "
+                                    + "pressure, wind, degrees) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                            new Object[]{i * DAY_IN_MILLIS, 800 + i % 5, i % 20, 10 + i % 20,
+                                    50, 1010, 3.5, i % 360});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private void assertUpgradesFrom(int version, String... schema) {
+        createOldDatabase(version, schema);
+
+        WeatherDBHelper helper = new WeatherDBHelper(mContext, UPGRADE_DATABASE);
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "Upgraded " + ROW_COUNT + " rows from version " + version + " in "
+                + elapsed + "ms");
+
+        try {
+            assertEquals(WeatherDBHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals(ROW_COUNT, DatabaseUtils.queryNumEntries(db, "weather"));
+
+            Cursor cursor = db.rawQuery("SELECT _id, weather_id, max, degrees FROM weather "
+                    + "WHERE date = ?", new String[]{Long.toString(1234 * DAY_IN_MILLIS)});
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(1235, cursor.getLong(0));
+                assertEquals(800 + 1234 % 5, cursor.getInt(1));
+                assertEquals(10 + 1234 % 20, cursor.getDouble(2), 0);
+                assertEquals(1234 % 360, cursor.getDouble(3), 0);
+            } finally {
+                cursor.close();
+            }
+
+            /* Every old row belonged to the preferred location, the only one ever written */
+            long locationId = DatabaseUtils.longForQuery(db, "SELECT _id FROM location WHERE "
+                            + "location_setting = ?",
+                    new String[]{SunshinePreferences.getPreferredWeatherLocation(mContext)});
+            assertEquals(ROW_COUNT, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM weather WHERE location_id = ?",
+                    new String[]{Long.toString(locationId)}));
+
+            assertEquals(freshSchema(), schemaOf(db));
+        } finally {
+            helper.close();
+        }
+    }
+
+    private Set<String> freshSchema() {
+        WeatherDBHelper helper = new WeatherDBHelper(mContext, FRESH_DATABASE);
+        try {
+            return schemaOf(helper.getReadableDatabase());
+        } finally {
+            helper.close();
+        }
+    }
+
+    /*
+     * The indexes on each table and how its columns are declared. The tables' own CREATE
+     * statements can't be compared as text, since renaming a table rewrites them.
+     */
+    private static Set<String> schemaOf(SQLiteDatabase db) {
+        Set<String> schema = new HashSet<>();
+        for (String table : new String[]{"location", "weather"}) {
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            try {
+                while (columns.moveToNext()) {
+                    schema.add(table + " column " + columns.getString(1) + " "
+                            + columns.getString(2) + " notnull=" + columns.getInt(3)
+                            + " pk=" + columns.getInt(5));
+                }
+            } finally {
+                columns.close();
+            }
+            Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            try {
+                while (indexes.moveToNext()) {
+                    schema.add(table + " index " + indexes.getString(1)
+                            + " unique=" + indexes.getInt(2));
+                }
+            } finally {
+                indexes.close();
+            }
+        }
+        return schema;
+    }
+
+    @Test
+    public void testUpgradeFromVersion3KeepsRows() {
+        assertUpgradesFrom(3, CREATE_TABLE_V3);
+    }
+
+    @Test
+    public void testUpgradeFromVersion4KeepsRows() {
+        assertUpgradesFrom(4, CREATE_TABLE_V4);
+    }
+
+    @Test
+    public void testUpgradeFromVersion5KeepsRows() {
+        assertUpgradesFrom(5, CREATE_TABLE_V5, CREATE_INDEX_V5);
+    }
+}
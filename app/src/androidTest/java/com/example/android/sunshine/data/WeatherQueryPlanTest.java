@@ -0,0 +1,146 @@
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the per-location queries {@link WeatherProvider} runs for
+ * weather/location/# and its range, upcoming and stats URIs, and the batches it prunes with, search
+ * the location and date index instead of scanning the table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherQueryPlanTest {
+
+    private WeatherDBHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDBHelper(InstrumentationRegistry.getTargetContext());
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    private List<String> explain(String sql, String... args) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        List<String> details = new ArrayList<>();
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return details;
+    }
+
+    /*
+     * Returns the SEARCH step on the weather table, failing if the weather table is scanned or
+     * the rows have to be sorted.
+     */
+    private static String assertIndexRangeScan(List<String> plan) {
+        return assertIndexRangeScan(plan, false);
+    }
+
+    /*
+     * As above, but a grouping that isn't in date order may need a temporary b-tree for its
+     * groups.
+     */
+    private static String assertIndexRangeScan(List<String> plan, boolean groupsInTempBTree) {
+        String search = null;
+        for (String detail : plan) {
+            if (detail.startsWith("SEARCH")
+                    && detail.contains(WeatherContract.WeatherEntry.INDEX_LOCATION_DATE)) {
+                search = detail;
+            }
+            assertFalse("Full table scan: " + plan,
+                    detail.startsWith("SCAN") && detail.contains(" weather"));
+            /* The index already returns rows in date order, so no sort should be needed */
+            if (!groupsInTempBTree) {
+                assertFalse("Sorts in a temporary b-tree: " + plan, detail.contains("TEMP B-TREE"));
+            }
+        }
+        assertNotNull("Location and date index not used: " + plan, search);
+        return search;
+    }
+
+    @Test
+    public void testLocationQuerySearchesLocationDateIndex() {
+        String sql = WeatherProvider.buildDateRangeQuery(null, WeatherProvider.LOCATION_SELECTION,
+                null, null, 0);
+        assertIndexRangeScan(explain(sql, "1"));
+    }
+
+    @Test
+    public void testRangeQuerySearchesLocationDateIndex() {
+        String sql = WeatherProvider.buildDateRangeQuery(null, WeatherProvider.RANGE_SELECTION,
+                null, null, WeatherContract.WeatherEntry.MAX_RANGE_DAYS);
+        assertIndexRangeScan(explain(sql, "1", "0", "86400000"));
+    }
+
+    @Test
+    public void testUpcomingQuerySearchesLocationDateIndex() {
+        String sql = WeatherProvider.buildDateRangeQuery(null, WeatherProvider.UPCOMING_SELECTION,
+                null, null, WeatherContract.WeatherEntry.MAX_UPCOMING_DAYS);
+        assertIndexRangeScan(explain(sql, "1", "0"));
+    }
+
+    @Test
+    public void testExtraSelectionStillSearchesLocationDateIndex() {
+        String sql = WeatherProvider.buildDateRangeQuery(null, WeatherProvider.RANGE_SELECTION,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?", null,
+                WeatherContract.WeatherEntry.MAX_RANGE_DAYS);
+        assertIndexRangeScan(explain(sql, "1", "0", "86400000", "800"));
+    }
+
+    @Test
+    public void testDatesAreReadFromIndexAlone() {
+        String sql = WeatherProvider.buildDateRangeQuery(
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                WeatherProvider.UPCOMING_SELECTION, null, null,
+                WeatherContract.WeatherEntry.MAX_UPCOMING_DAYS);
+        String search = assertIndexRangeScan(explain(sql, "1", "0"));
+        assertTrue("Table rows read: " + search, search.contains("COVERING INDEX"));
+    }
+
+    @Test
+    public void testPruneSearchesLocationDateIndex() {
+        /* The subquery picking the batch is what finds the old days */
+        assertIndexRangeScan(explain(WeatherProvider.SQL_PRUNE_BATCH, "0"));
+    }
+
+    @Test
+    public void testDailyStatsSearchLocationDateIndex() {
+        String sql = WeatherProvider.buildStatsQuery(WeatherContract.StatsEntry.GROUP_BY_DAY,
+                null, null);
+        assertIndexRangeScan(explain(sql, "1", "0", "86400000"));
+    }
+
+    @Test
+    public void testWeeklyAndConditionStatsSearchLocationDateIndex() {
+        String weekly = WeatherProvider.buildStatsQuery(WeatherContract.StatsEntry.GROUP_BY_WEEK,
+                null, null);
+        assertIndexRangeScan(explain(weekly, "1", "0", "86400000"), true);
+        String byCondition = WeatherProvider.buildStatsQuery(
+                WeatherContract.StatsEntry.GROUP_BY_CONDITION, null, null);
+        assertIndexRangeScan(explain(byCondition, "1", "0", "86400000"), true);
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link WeatherProvider}'s row cache answers repeated queries, and that writes drop
+ * exactly the cached days they change. The benchmark logs the hit ratio and how long hits take
+ * compared to SQLite.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherRowCacheTest {
+
+    private static final String TAG = WeatherRowCacheTest.class.getSimpleName();
+
+    private static final String TEST_LOCATION = "row cache test";
+
+    private static final int DAY_COUNT = 14;
+    private static final int LOOKUPS = 2000;
+
+    private ContentResolver mResolver;
+    private TestLocation mLocation;
+    private long mLocationId;
+    private long mFirstDay;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mResolver = context.getContentResolver();
+        mLocation = new TestLocation(mResolver, TEST_LOCATION);
+        mLocationId = mLocation.create();
+
+        mFirstDay = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        WeatherBatch weather = new WeatherBatch(DAY_COUNT);
+        for (int i = 0; i < DAY_COUNT; i++) {
+            weather.add(mFirstDay + i * SunshineDateUtils.DAY_IN_MILLIS, 800, i, 10 + i,
+                    50, 1010, 3.5, 90);
+        }
+        mResolver.bulkInsert(WeatherContract.WeatherEntry.buildWeatherUriForLocation(mLocationId),
+                weather.toContentValues());
+    }
+
+    @After
+    public void tearDown() {
+        mLocation.delete();
+    }
+
+    private Uri dayUri(int day) {
+        return WeatherContract.WeatherEntry.buildWeatherUriForLocationWithDate(mLocationId,
+                mFirstDay + day * SunshineDateUtils.DAY_IN_MILLIS);
+    }
+
+    /* The day's max temperature, or NaN if there is no row for it */
+    private double queryMaxTemp(int day) {
+        Cursor cursor = mResolver.query(dayUri(day), null, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return Double.NaN;
+            }
+            return cursor.getDouble(
+                    cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Bundle stats() {
+        return mResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_ROW_CACHE_STATS, null, null);
+    }
+
+    private void writeDay(int day, double maxTemp) {
+        WeatherBatch weather = new WeatherBatch(1);
+        weather.add(mFirstDay + day * SunshineDateUtils.DAY_IN_MILLIS, 800, day, maxTemp,
+                50, 1010, 3.5, 90);
+        mResolver.bulkInsert(WeatherContract.WeatherEntry.buildWeatherUriForLocation(mLocationId),
+                weather.toContentValues());
+    }
+
+    @Test
+    public void testRepeatedQueryIsServedFromCache() {
+        assertEquals(13, queryMaxTemp(3), 0);
+        long hits = stats().getLong(WeatherRowCache.KEY_HITS);
+
+        assertEquals(13, queryMaxTemp(3), 0);
+        assertEquals(hits + 1, stats().getLong(WeatherRowCache.KEY_HITS));
+    }
+
+    @Test
+    public void testBulkInsertDropsOnlyChangedDay() {
+        queryMaxTemp(3);
+        queryMaxTemp(4);
+
+        writeDay(3, 30);
+
+        long misses = stats().getLong(WeatherRowCache.KEY_MISSES);
+        assertEquals(30, queryMaxTemp(3), 0);
+        assertEquals(misses + 1, stats().getLong(WeatherRowCache.KEY_MISSES));
+
+        long hits = stats().getLong(WeatherRowCache.KEY_HITS);
+        assertEquals(14, queryMaxTemp(4), 0);
+        assertEquals(hits + 1, stats().getLong(WeatherRowCache.KEY_HITS));
+    }
+
+    @Test
+    public void testUnchangedWriteKeepsCache() {
+        queryMaxTemp(5);
+        writeDay(5, 15);
+
+        long hits = stats().getLong(WeatherRowCache.KEY_HITS);
+        assertEquals(15, queryMaxTemp(5), 0);
+        assertEquals(hits + 1, stats().getLong(WeatherRowCache.KEY_HITS));
+    }
+
+    @Test
+    public void testUpcomingDropsChangedDay() {
+        Uri upcoming = WeatherContract.WeatherEntry.buildUpcomingUriForLocation(mLocationId);
+        mResolver.query(upcoming, null, null, null, null).close();
+
+        writeDay(DAY_COUNT - 1, 40);
+
+        Cursor cursor = mResolver.query(upcoming, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToLast());
+            assertEquals(40, cursor.getDouble(
+                    cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)), 0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testDeleteDropsDay() {
+        queryMaxTemp(2);
+        mResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                        + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationId),
+                        Long.toString(mFirstDay + 2 * SunshineDateUtils.DAY_IN_MILLIS)});
+        assertTrue(Double.isNaN(queryMaxTemp(2)));
+    }
+
+    @Test
+    public void benchmarkRepeatedDayLookups() {
+        Bundle before = stats();
+        /* Flicking between the list and a handful of days, over and over */
+        for (int i = 0; i < LOOKUPS; i++) {
+            queryMaxTemp(i % 5);
+        }
+        Bundle after = stats();
+
+        long hits = after.getLong(WeatherRowCache.KEY_HITS)
+                - before.getLong(WeatherRowCache.KEY_HITS);
+        long misses = after.getLong(WeatherRowCache.KEY_MISSES)
+                - before.getLong(WeatherRowCache.KEY_MISSES);
+        assertTrue("Repeated lookups missed the cache", hits > misses);
+        Log.i(TAG, LOOKUPS + " lookups: " + hits + " hits, " + misses + " misses; hit ratio "
+                + after.getDouble(WeatherRowCache.KEY_HIT_RATIO) + " overall, average hit "
+                + after.getLong(WeatherRowCache.KEY_AVERAGE_HIT_NANOS) / 1000 + "us, average miss "
+                + after.getLong(WeatherRowCache.KEY_AVERAGE_MISS_NANOS) / 1000 + "us");
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures weekly aggregates over a long history computed by SQLite through
+ * {@link WeatherContract.StatsEntry#buildStatsUri}, against reading every day and summing them up
+ * in Java. Checks both give the same answer, and writes the times to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherStatsBenchmark {
+
+    private static final String TAG = WeatherStatsBenchmark.class.getSimpleName();
+
+    /* About 55 years of days */
+    private static final int DAY_COUNT = 20000;
+
+    private static final String TEST_LOCATION = "stats benchmark";
+
+    private ContentResolver mResolver;
+    private TestLocation mLocation;
+    private long mLocationId;
+    private long mFirstDay;
+    private long mLastDay;
+
+    /* What the client side sums up for each week, to compare with the stats rows */
+    private static final class Week {
+        int days;
+        double minTemp = Double.MAX_VALUE;
+        double maxTemp = -Double.MAX_VALUE;
+        int rainyDays;
+    }
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mLocation = new TestLocation(mResolver, TEST_LOCATION);
+        mLocationId = mLocation.create();
+
+        mLastDay = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        mFirstDay = mLastDay - (DAY_COUNT - 1) * SunshineDateUtils.DAY_IN_MILLIS;
+        WeatherBatch weather = new WeatherBatch(DAY_COUNT);
+        for (int i = 0; i < DAY_COUNT; i++) {
+            /* Rain every third day */
+            weather.add(mFirstDay + i * SunshineDateUtils.DAY_IN_MILLIS,
+                    i % 3 == 0 ? 500 : 800, i % 20, 10 + i % 23, 50, 1010, 3.5, i % 360);
+        }
+        mResolver.bulkInsert(WeatherContract.WeatherEntry.buildWeatherUriForLocation(mLocationId),
+                weather.toContentValues());
+    }
+
+    @After
+    public void tearDown() {
+        mLocation.delete();
+    }
+
+    private static long mondayOf(long date) {
+        long days = date / SunshineDateUtils.DAY_IN_MILLIS;
+        return date - ((days + 3) % 7) * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /* Reads every day and sums them up by week, as a screen without the stats URI would */
+    private TreeMap<Long, Week> aggregateInJava() {
+        TreeMap<Long, Week> weeks = new TreeMap<>();
+        Cursor cursor = mResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriForLocation(mLocationId),
+                null, null, null, null);
+        try {
+            int dateIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_DATE);
+            int weatherIdIndex =
+                    cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            int minIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+            int maxIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            while (cursor.moveToNext()) {
+                long monday = mondayOf(cursor.getLong(dateIndex));
+                Week week = weeks.get(monday);
+                if (week == null) {
+                    week = new Week();
+                    weeks.put(monday, week);
+                }
+                week.days++;
+                week.minTemp = Math.min(week.minTemp, cursor.getDouble(minIndex));
+                week.maxTemp = Math.max(week.maxTemp, cursor.getDouble(maxIndex));
+                int weatherId = cursor.getInt(weatherIdIndex);
+                if (weatherId >= 200 && weatherId < 600) {
+                    week.rainyDays++;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return weeks;
+    }
+
+    @Test
+    public void benchmarkWeeklyStatsAgainstJava() {
+        long start = SystemClock.elapsedRealtime();
+        TreeMap<Long, Week> expected = aggregateInJava();
+        long javaMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        Cursor cursor = mResolver.query(WeatherContract.StatsEntry.buildStatsUri(mLocationId,
+                mFirstDay, mLastDay, WeatherContract.StatsEntry.GROUP_BY_WEEK),
+                null, null, null, null);
+        long sqlMillis;
+        try {
+            sqlMillis = SystemClock.elapsedRealtime() - start;
+            assertEquals(expected.size(), cursor.getCount());
+            int groupIndex = cursor.getColumnIndexOrThrow(WeatherContract.StatsEntry.COLUMN_GROUP);
+            int daysIndex = cursor.getColumnIndexOrThrow(WeatherContract.StatsEntry.COLUMN_DAYS);
+            int minIndex = cursor.getColumnIndexOrThrow(WeatherContract.StatsEntry.COLUMN_MIN_TEMP);
+            int maxIndex = cursor.getColumnIndexOrThrow(WeatherContract.StatsEntry.COLUMN_MAX_TEMP);
+            int rainyIndex =
+                    cursor.getColumnIndexOrThrow(WeatherContract.StatsEntry.COLUMN_RAINY_DAYS);
+            for (Long monday : expected.keySet()) {
+                cursor.moveToNext();
+                Week week = expected.get(monday);
+                assertEquals(monday.longValue(), cursor.getLong(groupIndex));
+                assertEquals(week.days, cursor.getInt(daysIndex));
+                assertEquals(week.minTemp, cursor.getDouble(minIndex), 0);
+                assertEquals(week.maxTemp, cursor.getDouble(maxIndex), 0);
+                assertEquals(week.rainyDays, cursor.getInt(rainyIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Log.i(TAG, "Weekly stats over " + DAY_COUNT + " days: " + javaMillis
+                + "ms reading every day into Java, " + sqlMillis + "ms aggregated in SQLite");
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that weather/location/{id}/upcoming starts at the local today, the day the forecast
+ * parser stores today's forecast under, rather than at the UTC date, with the time zone pinned
+ * to either side of UTC.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherUpcomingTest {
+
+    private static final String TEST_LOCATION = "upcoming test";
+
+    /*
+     * UTC+14 and UTC-11. Whatever the time, at least one of them is on a different date from
+     * UTC, so a query using the UTC date fails in one or the other.
+     */
+    private static final String[] ZONES = {"Pacific/Kiritimati", "Pacific/Pago_Pago"};
+
+    private ContentResolver mResolver;
+    private TestLocation mLocation;
+    private long mLocationId;
+    private TimeZone mSavedTimeZone;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mLocation = new TestLocation(mResolver, TEST_LOCATION);
+        mLocationId = mLocation.create();
+        mSavedTimeZone = TimeZone.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mSavedTimeZone);
+        mLocation.delete();
+    }
+
+    /* Today's calendar date in the zone, at midnight UTC, worked out without SunshineDateUtils */
+    private static long localToday(TimeZone timeZone) {
+        Calendar local = Calendar.getInstance(timeZone);
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.clear();
+        utc.set(local.get(Calendar.YEAR), local.get(Calendar.MONTH),
+                local.get(Calendar.DAY_OF_MONTH));
+        return utc.getTimeInMillis();
+    }
+
+    @Test
+    public void testUpcomingStartsAtLocalToday() {
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            TimeZone.setDefault(timeZone);
+            long today = localToday(timeZone);
+            assertEquals(zone, today, SunshineDateUtils.getNormalizedToday());
+
+            /* Yesterday, today and tomorrow, with today's max temperature marking its row */
+            WeatherBatch weather = new WeatherBatch(3);
+            for (int day = -1; day <= 1; day++) {
+                weather.add(today + day * SunshineDateUtils.DAY_IN_MILLIS, 800, 0, 10 + day,
+                        50, 1010, 3.5, 90);
+            }
+            mResolver.bulkInsert(
+                    WeatherContract.WeatherEntry.buildWeatherUriForLocation(mLocationId),
+                    weather.toContentValues());
+
+            Cursor cursor = mResolver.query(
+                    WeatherContract.WeatherEntry.buildUpcomingUriForLocation(mLocationId),
+                    null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                assertEquals(zone, 2, cursor.getCount());
+                assertTrue(cursor.moveToFirst());
+                assertEquals(zone, today, cursor.getLong(cursor.getColumnIndexOrThrow(
+                        WeatherContract.WeatherEntry.COLUMN_DATE)));
+                assertEquals(zone, 10, cursor.getDouble(cursor.getColumnIndexOrThrow(
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)), 0);
+            } finally {
+                cursor.close();
+            }
+            /* Start the next zone from an empty location */
+            mLocationId = mLocation.create();
+        }
+    }
+}
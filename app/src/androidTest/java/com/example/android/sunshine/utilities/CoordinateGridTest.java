@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CoordinateGridTest {
+
+    private static final String TAG = CoordinateGridTest.class.getSimpleName();
+
+    @Test
+    public void testSnapsToCellCentre() {
+        CoordinateGrid grid = new CoordinateGrid(0.01);
+        assertEquals("37.43", grid.snapLatitude(37.4284));
+        assertEquals("-122.07", grid.snapLongitude(-122.0724));
+        /* Nothing but the snapped digits, however the division rounds */
+        assertEquals("0.30", grid.snapLatitude(0.1 + 0.2));
+    }
+
+    @Test
+    public void testClampsLatitudeAndWrapsLongitude() {
+        CoordinateGrid grid = new CoordinateGrid(0.01);
+        assertEquals("90.00", grid.snapLatitude(91));
+        assertEquals("-90.00", grid.snapLatitude(-95));
+        assertEquals(grid.snapLongitude(-180), grid.snapLongitude(180));
+        assertEquals(grid.snapLongitude(10), grid.snapLongitude(370));
+    }
+
+    /**
+     * Replays a user wandering around a small area through grids of several resolutions, counting
+     * how many requests land in a cell that was already fetched and so could be answered from the
+     * cache. The rates are written to the log; coarser grids should never do worse.
+     */
+    @Test
+    public void testCoarserGridsShareMoreRequests() {
+        double[] resolutions = {0.001, 0.01, 0.1};
+        double lastShareRate = -1;
+        for (double resolution : resolutions) {
+            CoordinateGrid grid = new CoordinateGrid(resolution);
+            Set<String> fetchedCells = new HashSet<>();
+            int shared = 0;
+            Random random = new Random(42);
+            double lat = 37.4284;
+            double lon = -122.0724;
+            for (int i = 0; i < 200; i++) {
+                /* A step of up to about 100 metres in any direction */
+                lat += (random.nextDouble() - 0.5) * 0.002;
+                lon += (random.nextDouble() - 0.5) * 0.002;
+                if (!fetchedCells.add(grid.snapLatitude(lat) + ',' + grid.snapLongitude(lon))) {
+                    shared++;
+                }
+            }
+            double shareRate = shared / 200.0;
+            Log.i(TAG, "resolution=" + resolution + ": shared " + shareRate);
+            assertTrue(shareRate >= lastShareRate);
+            lastShareRate = shareRate;
+        }
+        assertTrue(lastShareRate > 0.9);
+    }
+
+    @Test
+    public void testHitRateCountsCachedResponses() {
+        CoordinateGrid grid = new CoordinateGrid(0.01);
+        assertEquals(0, grid.getHitRate(), 0);
+
+        grid.recordRequest(false);
+        grid.recordRequest(true);
+        grid.recordRequest(true);
+        grid.recordRequest(false);
+
+        assertEquals(4, grid.getRequestCount());
+        assertEquals(2, grid.getHitCount());
+        assertEquals(0.5, grid.getHitRate(), 0);
+    }
+
+    @Test
+    public void testBuildingUrlsIsNotCounted() {
+        CoordinateGrid grid = new CoordinateGrid(0.01);
+        CoordinateGrid previous = NetworkUtils.getCoordinateGrid();
+        NetworkUtils.setCoordinateGrid(grid);
+        try {
+            NetworkUtils.buildUrl(37.4284, -122.0724);
+            NetworkUtils.buildUrl(37.4284, -122.0724);
+        } finally {
+            NetworkUtils.setCoordinateGrid(previous);
+        }
+        assertEquals(0, grid.getRequestCount());
+    }
+}
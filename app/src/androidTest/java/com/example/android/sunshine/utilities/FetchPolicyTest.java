@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class FetchPolicyTest {
+
+    private static final String FORECAST = "{\"cod\":\"200\",\"cnt\":0,\"list\":[]}";
+
+    /* The status the stub server answers with; 200 means healthy */
+    private volatile int mStatus = 200;
+    /* How many more requests get a 503 before the server goes back to mStatus */
+    private volatile int mFailuresLeft;
+
+    /* Stands in for the real clock and sleeping, so no test ever actually waits */
+    private long mNow;
+    private final List<Long> mSleeps = new ArrayList<>();
+
+    private StubHttpServer mServer;
+    private ForecastResponseCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                if (mFailuresLeft > 0) {
+                    mFailuresLeft--;
+                    return new StubHttpServer.Response(503);
+                }
+                if (mStatus != 200) {
+                    return new StubHttpServer.Response(mStatus);
+                }
+                return new StubHttpServer.Response(200)
+                        .header("ETag", "\"forecast\"")
+                        .body(FORECAST);
+            }
+        });
+        mServer.start();
+
+        mCache = new ForecastResponseCache(new File(
+                InstrumentationRegistry.getTargetContext().getCacheDir(), "fetch-policy-test"),
+                1024 * 1024);
+        mCache.evictAll();
+        NetworkUtils.setResponseCache(mCache);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        NetworkUtils.setFetchPolicy(new FetchPolicy.Builder().build());
+        NetworkUtils.setResponseCache(null);
+        mCache.evictAll();
+        mServer.shutdown();
+    }
+
+    private FetchPolicy.Builder deterministicPolicy() {
+        return new FetchPolicy.Builder()
+                .setJitter(0)
+                .setRandom(new Random(0))
+                .setClock(new FetchPolicy.Clock() {
+                    @Override
+                    public long now() {
+                        return mNow;
+                    }
+                })
+                .setSleeper(new FetchPolicy.Sleeper() {
+                    @Override
+                    public void sleep(long millis) {
+                        mSleeps.add(millis);
+                        mNow += millis;
+                    }
+                });
+    }
+
+    @Test
+    public void testRetriesWithExponentialBackoff() throws Exception {
+        FetchPolicy policy = deterministicPolicy()
+                .setMaxAttempts(4)
+                .setBackoff(100, 250, 2)
+                .build();
+        NetworkUtils.setFetchPolicy(policy);
+        mFailuresLeft = 3;
+
+        assertEquals(FORECAST, NetworkUtils.getResponseFromHttpUrl(mServer.url("/weather")));
+
+        assertEquals(4, mServer.getRequestCount());
+        assertEquals(3, policy.getRetryCount());
+        /* Doubling each time, but never more than the maximum */
+        assertEquals(Arrays.asList(100L, 200L, 250L), mSleeps);
+        assertEquals(FetchPolicy.BreakerState.CLOSED, policy.getBreakerState("127.0.0.1"));
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() throws Exception {
+        FetchPolicy policy = deterministicPolicy().setMaxAttempts(3).build();
+        NetworkUtils.setFetchPolicy(policy);
+        mStatus = 404;
+
+        try {
+            NetworkUtils.getResponseFromHttpUrl(mServer.url("/weather"));
+            fail("A 404 should have been reported");
+        } catch (NetworkUtils.HttpStatusException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(0, policy.getRetryCount());
+    }
+
+    /**
+     * Once the breaker opens, requests should be answered from the cache without reaching the
+     * server, until the cool-down passes and a trial request finds the server healthy again.
+     */
+    @Test
+    public void testOpenBreakerServesCachedResponse() throws Exception {
+        FetchPolicy policy = deterministicPolicy()
+                .setMaxAttempts(1)
+                .setCircuitBreaker(2, 60000)
+                .build();
+        NetworkUtils.setFetchPolicy(policy);
+        URL url = mServer.url("/weather");
+
+        /* Prime the cache while the server is healthy */
+        assertEquals(FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+
+        mStatus = 503;
+        /* Two failures in a row open the breaker; each still falls back to the cached body */
+        assertEquals(FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+        assertEquals(FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+        assertEquals(FetchPolicy.BreakerState.OPEN, policy.getBreakerState("127.0.0.1"));
+        assertEquals(3, mServer.getRequestCount());
+
+        /* While open, the server isn't asked at all */
+        assertEquals(FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(1, policy.getShortCircuitCount());
+
+        /* After the cool-down, one trial request closes the breaker again */
+        mStatus = 200;
+        mNow += 60000;
+        assertEquals(FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+        assertEquals(4, mServer.getRequestCount());
+        assertEquals(FetchPolicy.BreakerState.CLOSED, policy.getBreakerState("127.0.0.1"));
+        /* CLOSED -> OPEN -> HALF_OPEN -> CLOSED */
+        assertEquals(3, policy.getBreakerTransitionCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenBreakerWithoutCacheFails() throws Exception {
+        NetworkUtils.setFetchPolicy(deterministicPolicy()
+                .setMaxAttempts(1)
+                .setCircuitBreaker(1, 60000)
+                .build());
+        mStatus = 503;
+        URL url = mServer.url("/weather");
+
+        try {
+            NetworkUtils.getResponseFromHttpUrl(url);
+        } catch (IOException expected) {
+            // Opens the breaker
+        }
+        NetworkUtils.getResponseFromHttpUrl(url);
+    }
+
+    /**
+     * A trial request that is cancelled never heard from the host, so it mustn't close the
+     * breaker. It should hand the trial on to the next request instead.
+     */
+    @Test
+    public void testInterruptedTrialLeavesBreakerOpen() throws Exception {
+        FetchPolicy policy = deterministicPolicy()
+                .setMaxAttempts(1)
+                .setCircuitBreaker(1, 60000)
+                .build();
+        NetworkUtils.setFetchPolicy(policy);
+        mStatus = 503;
+        URL url = mServer.url("/weather");
+        try {
+            NetworkUtils.getResponseFromHttpUrl(url);
+            fail("A 503 with nothing cached should have been reported");
+        } catch (NetworkUtils.HttpStatusException expected) {
+            // Opens the breaker
+        }
+        assertEquals(FetchPolicy.BreakerState.OPEN, policy.getBreakerState("127.0.0.1"));
+
+        mNow += 60000;
+        try {
+            policy.execute(url, new FailingAttempt(new InterruptedIOException("Cancelled")));
+            fail("The interruption should have been rethrown");
+        } catch (InterruptedIOException expected) {
+            // The trial was cancelled
+        }
+        assertEquals(FetchPolicy.BreakerState.OPEN, policy.getBreakerState("127.0.0.1"));
+
+        /* The next request gets to be the trial, and closes the breaker */
+        mStatus = 200;
+        assertEquals(FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+        assertEquals(FetchPolicy.BreakerState.CLOSED, policy.getBreakerState("127.0.0.1"));
+    }
+
+    /**
+     * A body that can't be parsed came from a host that answered, so it is neither retried nor
+     * counted as a failure of the host.
+     */
+    @Test
+    public void testUnreadableResponsesAreNotRetried() throws Exception {
+        FetchPolicy policy = deterministicPolicy()
+                .setMaxAttempts(3)
+                .setCircuitBreaker(1, 60000)
+                .build();
+        NetworkUtils.setFetchPolicy(policy);
+        URL url = mServer.url("/weather");
+
+        try {
+            NetworkUtils.getResponseFromHttpUrl(url,
+                    new NetworkUtils.ResponseHandler<Integer>() {
+                        @Override
+                        public Integer handleResponse(InputStream in) throws IOException {
+                            return OpenWeatherJsonUtils.parseForecast(
+                                    new StringReader("{\"cod\":\"200\",\"list\":{}}"),
+                                    new OpenWeatherJsonUtils.DayForecastListener() {
+                                        @Override
+                                        public void onDayCount(int count) {
+                                        }
+
+                                        @Override
+                                        public void onDayForecast(int index,
+                                                OpenWeatherJsonUtils.DayForecast day) {
+                                        }
+                                    });
+                        }
+                    });
+            fail("The unexpected JSON should have been reported");
+        } catch (NetworkUtils.ResponseFormatException expected) {
+            // The server answered, but not with a forecast
+        }
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(0, policy.getRetryCount());
+        assertEquals(FetchPolicy.BreakerState.CLOSED, policy.getBreakerState("127.0.0.1"));
+    }
+
+    /* Fails every try with the same exception, with nothing to fall back on */
+    private static final class FailingAttempt implements FetchPolicy.Attempt<String> {
+        private final IOException mFailure;
+
+        FailingAttempt(IOException failure) {
+            mFailure = failure;
+        }
+
+        @Override
+        public String fetch() throws IOException {
+            throw mFailure;
+        }
+
+        @Override
+        public String fallback() {
+            return null;
+        }
+    }
+}
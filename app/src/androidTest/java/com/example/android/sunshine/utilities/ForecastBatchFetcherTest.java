@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherBatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ForecastBatchFetcherTest {
+
+    private static final String TAG = ForecastBatchFetcherTest.class.getSimpleName();
+
+    private static final String FORECAST = "{\"cod\":\"200\",\"cnt\":2,\"list\":["
+            + "{\"temp\":{\"min\":10,\"max\":20},\"weather\":[{\"id\":800,\"main\":\"Clear\"}]},"
+            + "{\"temp\":{\"min\":11,\"max\":21},\"weather\":[{\"id\":500,\"main\":\"Rain\"}]}]}";
+
+    private static final int LOCATION_COUNT = 16;
+
+    /* How long the stub server takes to answer each request */
+    private volatile long mLatencyMillis = 50;
+
+    private StubHttpServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request)
+                    throws InterruptedException {
+                Thread.sleep(mLatencyMillis);
+                return new StubHttpServer.Response(200).body(FORECAST);
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    private String[] locations() {
+        String[] locations = new String[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            locations[i] = "location-" + i;
+        }
+        return locations;
+    }
+
+    private URL[] urls(String[] locations) throws IOException {
+        URL[] urls = new URL[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            urls[i] = mServer.url("/weather?q=" + locations[i]);
+        }
+        return urls;
+    }
+
+    @Test
+    public void testEveryLocationIsParsed() throws Exception {
+        ForecastBatchFetcher fetcher = new ForecastBatchFetcher(4);
+        String[] locations = locations();
+        final int[] rows = new int[1];
+
+        ForecastBatchFetcher.Result result = fetcher.fetch(locations, urls(locations), 10000,
+                new ForecastBatchFetcher.Listener() {
+                    @Override
+                    public void onLocationFetched(String location, WeatherBatch weather) {
+                        rows[0] += weather.size();
+                    }
+
+                    @Override
+                    public void onLocationFailed(String location, IOException error) {
+                    }
+                });
+        fetcher.shutdown();
+
+        assertEquals(LOCATION_COUNT, result.fetched);
+        assertEquals(0, result.failed);
+        assertEquals(LOCATION_COUNT * 2, rows[0]);
+    }
+
+    @Test
+    public void testDeadlineCancelsOutstandingLocations() throws Exception {
+        mLatencyMillis = 1000;
+        ForecastBatchFetcher fetcher = new ForecastBatchFetcher(2);
+        String[] locations = locations();
+
+        ForecastBatchFetcher.Result result = fetcher.fetch(locations, urls(locations), 200,
+                new ForecastBatchFetcher.Listener() {
+                    @Override
+                    public void onLocationFetched(String location, WeatherBatch weather) {
+                    }
+
+                    @Override
+                    public void onLocationFailed(String location, IOException error) {
+                    }
+                });
+        fetcher.shutdown();
+
+        assertEquals(0, result.fetched);
+        assertEquals(LOCATION_COUNT, result.timedOut);
+        assertTrue(result.elapsedMillis < mLatencyMillis);
+    }
+
+    /**
+     * Measures locations fetched per second at increasing levels of parallelism, against a
+     * server with a fixed latency. The numbers are written to the log; the assertion only checks
+     * that fetching in parallel pays off at all.
+     */
+    @Test
+    public void benchmarkParallelism() throws Exception {
+        String[] locations = locations();
+        URL[] urls = urls(locations);
+        ForecastBatchFetcher.Listener ignore = new ForecastBatchFetcher.Listener() {
+            @Override
+            public void onLocationFetched(String location, WeatherBatch weather) {
+            }
+
+            @Override
+            public void onLocationFailed(String location, IOException error) {
+            }
+        };
+
+        long serialMillis = 0;
+        long parallelMillis = 0;
+        for (int parallelism : new int[]{1, 2, 4, 8}) {
+            ForecastBatchFetcher fetcher = new ForecastBatchFetcher(parallelism);
+            ForecastBatchFetcher.Result result = fetcher.fetch(locations, urls, 60000, ignore);
+            fetcher.shutdown();
+
+            assertEquals(LOCATION_COUNT, result.fetched);
+            Log.i(TAG, "parallelism=" + parallelism + ": " + result.elapsedMillis + "ms, "
+                    + (LOCATION_COUNT * 1000 / Math.max(1, result.elapsedMillis))
+                    + " locations/s");
+            if (parallelism == 1) {
+                serialMillis = result.elapsedMillis;
+            } else if (parallelism == 4) {
+                parallelMillis = result.elapsedMillis;
+            }
+        }
+        assertTrue(parallelMillis * 2 < serialMillis);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class ForecastFetchCoordinatorTest {
+
+    private static final long WAIT_SECONDS = 5;
+
+    private final ForecastFetchCoordinator<Object> mCoordinator = new ForecastFetchCoordinator<>();
+    private final AtomicInteger mCalls = new AtomicInteger();
+    /* Counted down once the fetch has started, and awaited by the fetch before it finishes */
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    /* A fetch that holds still until released, then succeeds with result or fails */
+    private Callable<Object> blockingFetch(final Object result, final IOException failure) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                mCalls.incrementAndGet();
+                mStarted.countDown();
+                assertTrue(mRelease.await(WAIT_SECONDS, TimeUnit.SECONDS));
+                if (failure != null) {
+                    throw failure;
+                }
+                return result;
+            }
+        };
+    }
+
+    /*
+     * Calls fetch on a new thread, keeping whatever it returned or threw in outcome[0].
+     */
+    private Thread fetchOnThread(final URL url, final Callable<Object> fetch,
+                                 final Object[] outcome) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outcome[0] = mCoordinator.fetch(url, fetch);
+                } catch (IOException e) {
+                    outcome[0] = e;
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /*
+     * Starts a fetch for the URL, then has a second caller ask for the same URL while the first
+     * is still running. Returns once the second caller is waiting on the first.
+     */
+    private Thread[] fetchTwice(URL url, Callable<Object> fetch, Object[] first, Object[] second)
+            throws Exception {
+        Thread owner = fetchOnThread(url, fetch, first);
+        assertTrue(mStarted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        Thread joiner = fetchOnThread(url, fetch, second);
+        long deadline = System.currentTimeMillis() + WAIT_SECONDS * 1000;
+        while (mCoordinator.getCoalescedCount() == 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The second caller never joined the fetch in flight");
+            }
+            Thread.sleep(10);
+        }
+        return new Thread[]{owner, joiner};
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneFetch() throws Exception {
+        Object result = new Object();
+        Object[] first = new Object[1];
+        Object[] second = new Object[1];
+        Thread[] threads = fetchTwice(new URL("http://example.com/weather?q=94043"),
+                blockingFetch(result, null), first, second);
+
+        mRelease.countDown();
+        threads[0].join();
+        threads[1].join();
+
+        assertEquals(1, mCalls.get());
+        assertSame(result, first[0]);
+        assertSame(result, second[0]);
+        assertEquals(1, mCoordinator.getFetchCount());
+        assertEquals(1, mCoordinator.getCoalescedCount());
+    }
+
+    @Test
+    public void testFailureReachesEveryCaller() throws Exception {
+        IOException failure = new IOException("Server unreachable");
+        Object[] first = new Object[1];
+        Object[] second = new Object[1];
+        Thread[] threads = fetchTwice(new URL("http://example.com/weather?q=94043"),
+                blockingFetch(null, failure), first, second);
+
+        mRelease.countDown();
+        threads[0].join();
+        threads[1].join();
+
+        assertEquals(1, mCalls.get());
+        assertSame(failure, first[0]);
+        assertSame(failure, second[0]);
+    }
+
+    @Test
+    public void testInterruptedOwnerDoesNotFailOtherCallers() throws Exception {
+        Object result = new Object();
+        Object[] first = new Object[1];
+        Object[] second = new Object[1];
+        Thread[] threads = fetchTwice(new URL("http://example.com/weather?q=94043"),
+                blockingFetch(result, null), first, second);
+
+        /* As when a stopped job or a batch past its deadline interrupts the owner */
+        threads[0].interrupt();
+        threads[0].join();
+        mRelease.countDown();
+        threads[1].join();
+
+        assertTrue(first[0] instanceof InterruptedIOException);
+        assertSame(result, second[0]);
+        assertEquals(2, mCalls.get());
+        assertEquals(2, mCoordinator.getFetchCount());
+    }
+
+    @Test
+    public void testCompletedFetchIsNotShared() throws Exception {
+        URL url = new URL("http://example.com/weather?q=94043");
+        mRelease.countDown();
+        mCoordinator.fetch(url, blockingFetch("first", null));
+        assertEquals("second", mCoordinator.fetch(url, blockingFetch("second", null)));
+
+        assertEquals(2, mCalls.get());
+        assertEquals(2, mCoordinator.getFetchCount());
+        assertEquals(0, mCoordinator.getCoalescedCount());
+    }
+
+    @Test
+    public void testDifferentUrlsAreFetchedSeparately() throws Exception {
+        mRelease.countDown();
+        assertEquals("a", mCoordinator.fetch(new URL("http://example.com/weather?q=94043"),
+                blockingFetch("a", null)));
+        assertEquals("b", mCoordinator.fetch(new URL("http://example.com/weather?q=10001"),
+                blockingFetch("b", null)));
+        assertEquals(2, mCoordinator.getFetchCount());
+    }
+}
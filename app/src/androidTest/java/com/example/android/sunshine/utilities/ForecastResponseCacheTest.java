@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class ForecastResponseCacheTest {
+
+    private static final String FORECAST_V1 = "{\"cod\":\"200\",\"cnt\":1,\"list\":[{\"temp\":{\"min\":10,\"max\":20}}]}";
+    private static final String FORECAST_V2 = "{\"cod\":\"200\",\"cnt\":1,\"list\":[{\"temp\":{\"min\":11,\"max\":21}}]}";
+
+    /* The ETag the stub server hands out, and the body that goes with it */
+    private volatile String mCurrentETag = "\"v1\"";
+    private volatile String mCurrentBody = FORECAST_V1;
+
+    private StubHttpServer mServer;
+    private ForecastResponseCache mCache;
+    private File mCacheDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                if (mCurrentETag.equals(request.getHeader("If-None-Match"))) {
+                    return new StubHttpServer.Response(304).header("ETag", mCurrentETag);
+                }
+                return new StubHttpServer.Response(200)
+                        .header("ETag", mCurrentETag)
+                        .body(mCurrentBody);
+            }
+        });
+        mServer.start();
+
+        mCacheDirectory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "forecast-response-cache-test");
+        mCache = new ForecastResponseCache(mCacheDirectory, 1024 * 1024);
+        mCache.evictAll();
+        NetworkUtils.setResponseCache(mCache);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        NetworkUtils.setResponseCache(null);
+        mCache.evictAll();
+        mServer.shutdown();
+    }
+
+    /**
+     * The second request for a URL should carry the ETag of the first response, and the 304 the
+     * server answers with should be turned into the cached body.
+     */
+    @Test
+    public void testNotModifiedIsServedFromCache() throws Exception {
+        URL url = mServer.url("/weather?q=94043");
+
+        assertEquals(FORECAST_V1, NetworkUtils.getResponseFromHttpUrl(url));
+        assertEquals(FORECAST_V1, NetworkUtils.getResponseFromHttpUrl(url));
+
+        List<StubHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertNull(requests.get(0).getHeader("If-None-Match"));
+        assertEquals("\"v1\"", requests.get(1).getHeader("If-None-Match"));
+
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void testChangedResponseReplacesCachedBody() throws Exception {
+        URL url = mServer.url("/weather?q=94043");
+        assertEquals(FORECAST_V1, NetworkUtils.getResponseFromHttpUrl(url));
+
+        mCurrentETag = "\"v2\"";
+        mCurrentBody = FORECAST_V2;
+        assertEquals(FORECAST_V2, NetworkUtils.getResponseFromHttpUrl(url));
+        assertEquals(FORECAST_V2, NetworkUtils.getResponseFromHttpUrl(url));
+
+        assertEquals(2, mCache.getMissCount());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(FORECAST_V2.length(), mCache.size());
+    }
+
+    /**
+     * With room for only two responses, caching a third should evict whichever of the first two
+     * was used least recently.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsedEntry() throws Exception {
+        mCache = new ForecastResponseCache(mCacheDirectory, FORECAST_V1.length() * 5 / 2);
+        mCache.evictAll();
+        NetworkUtils.setResponseCache(mCache);
+
+        URL first = mServer.url("/weather?q=first");
+        URL second = mServer.url("/weather?q=second");
+        URL third = mServer.url("/weather?q=third");
+
+        NetworkUtils.getResponseFromHttpUrl(first);
+        NetworkUtils.getResponseFromHttpUrl(second);
+        /* Touch the first entry so the second becomes the least recently used */
+        assertNotNull(mCache.get(first));
+        NetworkUtils.getResponseFromHttpUrl(third);
+
+        assertEquals(1, mCache.getEvictionCount());
+        assertNotNull(mCache.get(first));
+        assertNull(mCache.get(second));
+        assertNotNull(mCache.get(third));
+    }
+}
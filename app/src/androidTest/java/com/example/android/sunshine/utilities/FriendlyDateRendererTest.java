@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks {@link FriendlyDateRenderer} against the per-call rendering it replaced, with the clock
+ * and time zone pinned on either side of daylight saving transitions, and its cached offsets
+ * against TimeZone.getOffset. The benchmark writes both rendering times to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FriendlyDateRendererTest {
+
+    private static final String TAG = FriendlyDateRendererTest.class.getSimpleName();
+
+    /* Zones with an hour of DST, half an hour of DST, southern DST, and none at all */
+    private static final String[] ZONES = {"America/New_York", "Europe/London",
+            "Australia/Lord_Howe", "America/Sao_Paulo", "Asia/Kolkata"};
+
+    /* 2017-03-12 07:00 UTC, when New York springs forward, and 2017-11-05 06:00 UTC, back */
+    private static final long SPRING_FORWARD = 1489302000000L;
+    private static final long FALL_BACK = 1509861600000L;
+
+    /* 2017-01-01 and 2018-01-01 00:00 UTC, the year searched for each zone's own transitions */
+    private static final long YEAR_START = 1483228800000L;
+    private static final long YEAR_END = 1514764800000L;
+
+    private static final int RENDERED_DAYS = 20;
+    private static final int RENDERS = 10000;
+
+    private Context mContext;
+    private TimeZone mSavedTimeZone;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mSavedTimeZone = TimeZone.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mSavedTimeZone);
+    }
+
+    /* The day number SunshineDateUtils.getDayNumber gave, in the default zone */
+    private static long legacyDayNumber(long date) {
+        return (date + TimeZone.getDefault().getOffset(date)) / SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    private String legacyDayName(long localDate, long now) {
+        long dayNumber = legacyDayNumber(localDate);
+        long currentDayNumber = legacyDayNumber(now);
+        if (dayNumber == currentDayNumber) {
+            return mContext.getString(R.string.today);
+        } else if (dayNumber == currentDayNumber + 1) {
+            return mContext.getString(R.string.tomorrow);
+        }
+        return new SimpleDateFormat("EEEE").format(localDate);
+    }
+
+    /* How getFriendlyDateString rendered a date before the renderer, with the clock pinned */
+    private String legacyFriendlyDate(long dateInMillis, boolean showFullDate, long now) {
+        long localDate = dateInMillis - TimeZone.getDefault().getOffset(dateInMillis);
+        long dayNumber = legacyDayNumber(localDate);
+        long currentDayNumber = legacyDayNumber(now);
+        if (dayNumber == currentDayNumber || showFullDate) {
+            String dayName = legacyDayName(localDate, now);
+            String readableDate = DateUtils.formatDateTime(mContext, localDate,
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_NO_YEAR
+                            | DateUtils.FORMAT_SHOW_WEEKDAY);
+            if (dayNumber - currentDayNumber < 2) {
+                String localizedDayName = new SimpleDateFormat("EEEE").format(localDate);
+                return readableDate.replace(localizedDayName, dayName);
+            }
+            return readableDate;
+        } else if (dayNumber < currentDayNumber + 7) {
+            return legacyDayName(localDate, now);
+        }
+        return DateUtils.formatDateTime(mContext, localDate, DateUtils.FORMAT_SHOW_DATE
+                | DateUtils.FORMAT_NO_YEAR | DateUtils.FORMAT_ABBREV_ALL
+                | DateUtils.FORMAT_SHOW_WEEKDAY);
+    }
+
+    /*
+     * The instants in the year at which the zone's offset changes, found to the millisecond. A
+     * zone that never changes gets New York's, so it is still checked around the same dates.
+     */
+    private static long[] transitions(TimeZone timeZone) {
+        long[] found = new long[4];
+        int count = 0;
+        for (long day = YEAR_START; day < YEAR_END; day += SunshineDateUtils.DAY_IN_MILLIS) {
+            long low = day;
+            long high = day + SunshineDateUtils.DAY_IN_MILLIS;
+            if (timeZone.getOffset(low) == timeZone.getOffset(high)) {
+                continue;
+            }
+            /* Narrow it down until high is the first millisecond on the new offset */
+            while (high - low > 1) {
+                long middle = low + (high - low) / 2;
+                if (timeZone.getOffset(middle) == timeZone.getOffset(low)) {
+                    low = middle;
+                } else {
+                    high = middle;
+                }
+            }
+            found[count++] = high;
+        }
+        if (count == 0) {
+            return new long[]{SPRING_FORWARD, FALL_BACK};
+        }
+        long[] transitions = new long[count];
+        System.arraycopy(found, 0, transitions, 0, count);
+        return transitions;
+    }
+
+    private FriendlyDateRenderer renderer(String zone) {
+        TimeZone timeZone = TimeZone.getTimeZone(zone);
+        TimeZone.setDefault(timeZone);
+        return new FriendlyDateRenderer(mContext, timeZone, Locale.getDefault());
+    }
+
+    @Test
+    public void testOffsetsMatchTimeZone() {
+        Random random = new Random(7);
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            FriendlyDateRenderer renderer = renderer(zone);
+            /* Through two years in steps that land all over the clock, then jumping about */
+            for (long time = SPRING_FORWARD - 365 * SunshineDateUtils.DAY_IN_MILLIS;
+                 time < FALL_BACK + 365 * SunshineDateUtils.DAY_IN_MILLIS;
+                 time += 37 * SunshineDateUtils.MINUTE_IN_MILLIS) {
+                assertEquals(zone + " at " + time, timeZone.getOffset(time),
+                        renderer.getOffset(time));
+            }
+            for (int i = 0; i < 10000; i++) {
+                long time = FALL_BACK + (long) ((random.nextDouble() - 0.5)
+                        * 1000 * SunshineDateUtils.DAY_IN_MILLIS);
+                assertEquals(zone + " at " + time, timeZone.getOffset(time),
+                        renderer.getOffset(time));
+            }
+            /* Right on the zone's own transitions, to the millisecond */
+            for (long transition : transitions(timeZone)) {
+                for (long time = transition - 2; time <= transition + 2; time++) {
+                    assertEquals(zone + " at " + time, timeZone.getOffset(time),
+                            renderer.getOffset(time));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesLegacyAcrossDst() {
+        for (String zone : ZONES) {
+            FriendlyDateRenderer renderer = renderer(zone);
+            for (long transition : transitions(TimeZone.getTimeZone(zone))) {
+                /* Clocks just before, during and just after the transition, and a day either side */
+                long[] nows = {transition - SunshineDateUtils.DAY_IN_MILLIS,
+                        transition - SunshineDateUtils.MINUTE_IN_MILLIS, transition,
+                        transition + 90 * SunshineDateUtils.MINUTE_IN_MILLIS,
+                        transition + SunshineDateUtils.DAY_IN_MILLIS};
+                long firstDay = SunshineDateUtils.normalizeDate(transition)
+                        - 3 * SunshineDateUtils.DAY_IN_MILLIS;
+                for (long now : nows) {
+                    renderer.beginBatch(now);
+                    for (int day = 0; day < RENDERED_DAYS; day++) {
+                        long date = firstDay + day * SunshineDateUtils.DAY_IN_MILLIS;
+                        for (boolean showFullDate : new boolean[]{false, true}) {
+                            assertEquals(zone + " at " + now + " for " + date,
+                                    legacyFriendlyDate(date, showFullDate, now),
+                                    renderer.render(date, showFullDate));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLabelsAreKeptUntilTheDayChanges() {
+        FriendlyDateRenderer renderer = renderer("America/New_York");
+        long tomorrow = SunshineDateUtils.normalizeDate(FALL_BACK)
+                + SunshineDateUtils.DAY_IN_MILLIS;
+
+        renderer.beginBatch(FALL_BACK);
+        String label = renderer.render(tomorrow, false);
+        assertEquals(mContext.getString(R.string.tomorrow), label);
+        assertSame(label, renderer.render(tomorrow, false));
+
+        /* A day later, what was tomorrow is today */
+        renderer.beginBatch(FALL_BACK + SunshineDateUtils.DAY_IN_MILLIS);
+        assertEquals(legacyFriendlyDate(tomorrow, false, FALL_BACK + SunshineDateUtils.DAY_IN_MILLIS),
+                renderer.render(tomorrow, false));
+    }
+
+    @Test
+    public void benchmarkForecastDates() {
+        FriendlyDateRenderer renderer = renderer("America/New_York");
+        long now = System.currentTimeMillis();
+        long firstDay = SunshineDateUtils.normalizeDate(now);
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < RENDERS; i++) {
+            legacyFriendlyDate(firstDay + (i % 14) * SunshineDateUtils.DAY_IN_MILLIS, false, now);
+        }
+        long legacyMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        renderer.beginBatch(now);
+        for (int i = 0; i < RENDERS; i++) {
+            renderer.render(firstDay + (i % 14) * SunshineDateUtils.DAY_IN_MILLIS, false);
+        }
+        long rendererMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, RENDERS + " forecast dates: " + legacyMillis + "ms rendered one at a time, "
+                + rendererMillis + "ms through the renderer");
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny HTTP/1.1 server bound to the loopback interface, so the network code can be tested
+ * against responses we control. Every request is handed to a {@link Dispatcher}, and every
+ * request it has seen is kept for the test to look at afterwards.
+ */
+final class StubHttpServer {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * A request as it arrived at the server. Header names are lower case.
+     */
+    static final class Request {
+        final String method;
+        final String path;
+        final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /**
+     * The response the server will send back.
+     */
+    static final class Response {
+        final int code;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        byte[] body = new byte[0];
+
+        Response(int code) {
+            this.code = code;
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        Response body(String body) {
+            this.body = body.getBytes(Charset.forName("UTF-8"));
+            return this;
+        }
+
+        Response body(byte[] body) {
+            this.body = body;
+            return this;
+        }
+    }
+
+    interface Dispatcher {
+        Response dispatch(Request request) throws InterruptedException;
+    }
+
+    private final Dispatcher mDispatcher;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private ServerSocket mServerSocket;
+
+    StubHttpServer(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mConnectionCount.incrementAndGet();
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    int getRequestCount() {
+        return mRequests.size();
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /*
+     * Answers requests on a connection until the client closes it.
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;
+                }
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                            line.substring(colon + 1).trim());
+                }
+                Request request = new Request(parts[0], parts[1], headers);
+                mRequests.add(request);
+
+                Response response = mDispatcher.dispatch(request);
+                StringBuilder head = new StringBuilder()
+                        .append("HTTP/1.1 ").append(response.code).append(" Stub\r\n");
+                for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                    head.append(header.getKey()).append(": ").append(header.getValue())
+                            .append("\r\n");
+                }
+                head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+                out.write(head.toString().getBytes(ASCII));
+                out.write(response.body);
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away or the server is shutting down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String result = new String(line.toByteArray(), ASCII);
+                return result.endsWith("\r") ? result.substring(0, result.length() - 1) : result;
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : new String(line.toByteArray(), ASCII);
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks {@link WeatherConditions} against the switch and if-chains it replaced, for every code
+ * from well below to well above the ones OpenWeatherMap sends, and measures a forecast's worth
+ * of lookups both ways. The times are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherConditionsTest {
+
+    private static final String TAG = WeatherConditionsTest.class.getSimpleName();
+
+    /* Every code the old mapping could tell apart, and plenty either side */
+    private static final int FIRST_CHECKED_ID = -1;
+    private static final int LAST_CHECKED_ID = 1100;
+
+    private static final int LOOKUPS = 100000;
+
+    /* The codes a typical forecast cycles through */
+    private static final int[] FORECAST_IDS = {800, 801, 802, 500, 501, 211, 600, 741};
+
+    @Test
+    public void testMatchesLegacyMapping() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        for (int id = FIRST_CHECKED_ID; id <= LAST_CHECKED_ID; id++) {
+            assertEquals("Label of " + id, legacyString(context, id),
+                    WeatherConditions.getLabel(context, id));
+            assertEquals("Icon of " + id, legacyIcon(id), WeatherConditions.getIcon(id));
+            assertEquals("Art of " + id, legacyArt(id), WeatherConditions.getArt(id));
+        }
+    }
+
+    @Test
+    public void testLabelsAreResolvedOnce() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        for (int id : FORECAST_IDS) {
+            assertSame(WeatherConditions.getLabel(context, id),
+                    WeatherConditions.getLabel(context, id));
+        }
+    }
+
+    @Test
+    public void testCategories() {
+        assertEquals(WeatherConditions.CATEGORY_THUNDERSTORM, WeatherConditions.getCategory(211));
+        assertEquals(WeatherConditions.CATEGORY_DRIZZLE, WeatherConditions.getCategory(301));
+        assertEquals(WeatherConditions.CATEGORY_RAIN, WeatherConditions.getCategory(521));
+        assertEquals(WeatherConditions.CATEGORY_SNOW, WeatherConditions.getCategory(611));
+        assertEquals(WeatherConditions.CATEGORY_ATMOSPHERE, WeatherConditions.getCategory(771));
+        assertEquals(WeatherConditions.CATEGORY_CLEAR, WeatherConditions.getCategory(800));
+        assertEquals(WeatherConditions.CATEGORY_CLOUDS, WeatherConditions.getCategory(804));
+        assertEquals(WeatherConditions.CATEGORY_EXTREME, WeatherConditions.getCategory(902));
+        assertEquals(WeatherConditions.CATEGORY_ADDITIONAL, WeatherConditions.getCategory(955));
+        assertEquals(WeatherConditions.CATEGORY_UNKNOWN, WeatherConditions.getCategory(400));
+        assertEquals(WeatherConditions.CATEGORY_UNKNOWN, WeatherConditions.getCategory(-1));
+    }
+
+    @Test
+    public void benchmarkRowLookups() {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            int id = FORECAST_IDS[i % FORECAST_IDS.length];
+            legacyString(context, id);
+            legacyIcon(id);
+        }
+        long legacyMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            int id = FORECAST_IDS[i % FORECAST_IDS.length];
+            WeatherConditions.getLabel(context, id);
+            WeatherConditions.getIcon(id);
+        }
+        long tableMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, LOOKUPS + " label and icon lookups: " + legacyMillis
+                + "ms through the switch and if-chains, " + tableMillis + "ms through the table");
+    }
+
+    /* The mapping as it was before the table, kept as the reference */
+    private static String legacyString(Context context, int weatherId) {
+        int stringId;
+        if (weatherId >= 200 && weatherId <= 232) {
+            stringId = R.string.condition_2xx;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            stringId = R.string.condition_3xx;
+        } else switch (weatherId) {
+            case 500:
+                stringId = R.string.condition_500;
+                break;
+            case 501:
+                stringId = R.string.condition_501;
+                break;
+            case 502:
+                stringId = R.string.condition_502;
+                break;
+            case 503:
+                stringId = R.string.condition_503;
+                break;
+            case 504:
+                stringId = R.string.condition_504;
+                break;
+            case 511:
+                stringId = R.string.condition_511;
+                break;
+            case 520:
+                stringId = R.string.condition_520;
+                break;
+            case 531:
+                stringId = R.string.condition_531;
+                break;
+            case 600:
+                stringId = R.string.condition_600;
+                break;
+            case 601:
+                stringId = R.string.condition_601;
+                break;
+            case 602:
+                stringId = R.string.condition_602;
+                break;
+            case 611:
+                stringId = R.string.condition_611;
+                break;
+            case 612:
+                stringId = R.string.condition_612;
+                break;
+            case 615:
+                stringId = R.string.condition_615;
+                break;
+            case 616:
+                stringId = R.string.condition_616;
+                break;
+            case 620:
+                stringId = R.string.condition_620;
+                break;
+            case 621:
+                stringId = R.string.condition_621;
+                break;
+            case 622:
+                stringId = R.string.condition_622;
+                break;
+            case 701:
+                stringId = R.string.condition_701;
+                break;
+            case 711:
+                stringId = R.string.condition_711;
+                break;
+            case 721:
+                stringId = R.string.condition_721;
+                break;
+            case 731:
+                stringId = R.string.condition_731;
+                break;
+            case 741:
+                stringId = R.string.condition_741;
+                break;
+            case 751:
+                stringId = R.string.condition_751;
+                break;
+            case 761:
+                stringId = R.string.condition_761;
+                break;
+            case 762:
+                stringId = R.string.condition_762;
+                break;
+            case 771:
+                stringId = R.string.condition_771;
+                break;
+            case 781:
+                stringId = R.string.condition_781;
+                break;
+            case 800:
+                stringId = R.string.condition_800;
+                break;
+            case 801:
+                stringId = R.string.condition_801;
+                break;
+            case 802:
+                stringId = R.string.condition_802;
+                break;
+            case 803:
+                stringId = R.string.condition_803;
+                break;
+            case 804:
+                stringId = R.string.condition_804;
+                break;
+            case 900:
+                stringId = R.string.condition_900;
+                break;
+            case 901:
+                stringId = R.string.condition_901;
+                break;
+            case 902:
+                stringId = R.string.condition_902;
+                break;
+            case 903:
+                stringId = R.string.condition_903;
+                break;
+            case 904:
+                stringId = R.string.condition_904;
+                break;
+            case 905:
+                stringId = R.string.condition_905;
+                break;
+            case 906:
+                stringId = R.string.condition_906;
+                break;
+            case 951:
+                stringId = R.string.condition_951;
+                break;
+            case 952:
+                stringId = R.string.condition_952;
+                break;
+            case 953:
+                stringId = R.string.condition_953;
+                break;
+            case 954:
+                stringId = R.string.condition_954;
+                break;
+            case 955:
+                stringId = R.string.condition_955;
+                break;
+            case 956:
+                stringId = R.string.condition_956;
+                break;
+            case 957:
+                stringId = R.string.condition_957;
+                break;
+            case 958:
+                stringId = R.string.condition_958;
+                break;
+            case 959:
+                stringId = R.string.condition_959;
+                break;
+            case 960:
+                stringId = R.string.condition_960;
+                break;
+            case 961:
+                stringId = R.string.condition_961;
+                break;
+            case 962:
+                stringId = R.string.condition_962;
+                break;
+            default:
+                return context.getString(R.string.condition_unknown, weatherId);
+        }
+        return context.getString(stringId);
+    }
+
+    private static int legacyIcon(int weatherId) {
+        /*
+         * Based on weather code data found at:
+         * See http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+         */
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    private static int legacyArt(int weatherId) {
+        /*
+         * Based on weather code data found at:
+         * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+         */
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        } else if (weatherId >= 900 && weatherId <= 906) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 958 && weatherId <= 962) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 951 && weatherId <= 957) {
+            return R.drawable.art_clear;
+        }
+        return R.drawable.art_storm;
+    }
+}
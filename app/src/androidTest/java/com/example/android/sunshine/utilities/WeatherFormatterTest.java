@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link WeatherFormatter} writes exactly what String.format with the format
+ * resources wrote, across the table, its edges and beyond, and counts the allocations per row
+ * both ways. The counts are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WeatherFormatterTest {
+
+    private static final String TAG = WeatherFormatterTest.class.getSimpleName();
+
+    private static final int RANDOM_SAMPLES = 100000;
+    private static final int ROW_COUNT = 10000;
+
+    /* How temperatures were formatted before the tables */
+    private static String legacyTemperature(Context context, boolean metric, double temperature) {
+        int format = R.string.format_temperature_celsius;
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+            format = R.string.format_temperature_fahrenheit;
+        }
+        return String.format(context.getString(format), temperature);
+    }
+
+    private static String legacyHighLow(Context context, boolean metric, double high, double low) {
+        return legacyTemperature(context, metric, Math.round(high)) + " / "
+                + legacyTemperature(context, metric, Math.round(low));
+    }
+
+    /* How wind was formatted before the arithmetic compass */
+    private static String legacyWind(Context context, boolean metric, float windSpeed,
+                                     float degrees) {
+        int windFormat = R.string.format_wind_kmh;
+        if (!metric) {
+            windFormat = R.string.format_wind_mph;
+            windSpeed = .621371192237334f * windSpeed;
+        }
+        String direction = "Unknown";
+        if (degrees >= 337.5 || degrees < 22.5) {
+            direction = "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            direction = "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            direction = "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            direction = "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            direction = "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            direction = "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            direction = "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            direction = "NW";
+        }
+        return String.format(context.getString(windFormat), windSpeed, direction);
+    }
+
+    private static WeatherFormatter formatter(Context context, boolean metric) {
+        return new WeatherFormatter(context, metric, Locale.getDefault());
+    }
+
+    @Test
+    public void testMatchesLegacyFormatting() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        Random random = new Random(42);
+        for (boolean metric : new boolean[]{true, false}) {
+            WeatherFormatter formatter = formatter(context, metric);
+            StringBuilder out = new StringBuilder();
+            /* Every tenth of a degree around the table, then anything at all */
+            for (int tenths = -1500; tenths <= 1500; tenths++) {
+                double temperature = tenths / 10.0;
+                assertEquals(legacyTemperature(context, metric, temperature),
+                        formatter.formatTemperature(temperature));
+            }
+            double[] edges = {-0.5, -0.4, -0.0, 0.5, 0.49999999999999994, -17.5, -17.8,
+                    -100.5, 150.5, Double.NaN, Double.POSITIVE_INFINITY, -1e9};
+            for (double temperature : edges) {
+                assertEquals("Temperature " + temperature,
+                        legacyTemperature(context, metric, temperature),
+                        formatter.formatTemperature(temperature));
+            }
+            for (int i = 0; i < RANDOM_SAMPLES; i++) {
+                double high = (random.nextDouble() - 0.4) * 120;
+                double low = high - random.nextDouble() * 20;
+                out.setLength(0);
+                assertEquals(legacyHighLow(context, metric, high, low),
+                        formatter.appendHighLow(out, high, low).toString());
+
+                float speed = random.nextFloat() * 300;
+                float degrees = (random.nextFloat() - 0.25f) * 800;
+                out.setLength(0);
+                assertEquals(legacyWind(context, metric, speed, degrees),
+                        formatter.appendWind(out, speed, degrees).toString());
+            }
+            for (int degrees = -360; degrees <= 720; degrees++) {
+                out.setLength(0);
+                assertEquals(legacyWind(context, metric, 10, degrees / 2f),
+                        formatter.appendWind(out, 10, degrees / 2f).toString());
+            }
+            out.setLength(0);
+            assertEquals(legacyWind(context, metric, 5, Float.NaN),
+                    formatter.appendWind(out, 5, Float.NaN).toString());
+        }
+    }
+
+    @Test
+    public void testTableTemperaturesAreShared() {
+        WeatherFormatter formatter = formatter(InstrumentationRegistry.getTargetContext(), true);
+        assertSame(formatter.formatTemperature(21.2), formatter.formatTemperature(20.8));
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void benchmarkRowAllocations() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        WeatherFormatter formatter = formatter(context, true);
+        StringBuilder out = new StringBuilder(64);
+        /* Fill the tables first, as a list that has been on screen would have */
+        for (int i = 0; i < ROW_COUNT; i++) {
+            out.setLength(0);
+            formatter.appendHighLow(out, 20 + i % 10, 10 + i % 10);
+            formatter.appendWind(out, i % 40, i % 360);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ROW_COUNT; i++) {
+                legacyHighLow(context, true, 20 + i % 10, 10 + i % 10);
+                legacyWind(context, true, i % 40, i % 360);
+            }
+            int legacyAllocations = Debug.getThreadAllocCount();
+
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ROW_COUNT; i++) {
+                out.setLength(0);
+                formatter.appendHighLow(out, 20 + i % 10, 10 + i % 10);
+                formatter.appendWind(out, i % 40, i % 360);
+            }
+            int formatterAllocations = Debug.getThreadAllocCount();
+
+            Log.i(TAG, "Allocations per row: " + (float) legacyAllocations / ROW_COUNT
+                    + " through String.format, " + (float) formatterAllocations / ROW_COUNT
+                    + " through the formatter");
+            /* Only meaningful where the runtime counts allocations at all */
+            if (legacyAllocations > 0) {
+                assertTrue("Formatter allocates per row", formatterAllocations < ROW_COUNT);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
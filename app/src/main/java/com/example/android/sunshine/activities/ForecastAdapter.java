@@ -9,12 +9,35 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.PreferencesSnapshot;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherBatch;
+import com.example.android.sunshine.utilities.FriendlyDateRenderer;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.WeatherConditions;
+import com.example.android.sunshine.utilities.WeatherFormatter;
+
+import java.util.Arrays;
+import java.util.Locale;
 
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
-    private String[] mWeatherData;
+    //Rows rendered recently, enough for a screen of days and some scrolling either way
+    private static final int RENDERED_ROW_CACHE_SIZE = 32;
+
+    private final Context mContext;
+    private WeatherBatch mWeatherData;
     private final ForecastAdapterOnClickHandler mClickHandler;
 
+    //Each day is formatted when it's first bound, and kept in the slot position % cache size
+    private final String[] mRenderedRows = new String[RENDERED_ROW_CACHE_SIZE];
+    private final int[] mRenderedPositions = new int[RENDERED_ROW_CACHE_SIZE];
+    //The settings version, day and locale the rendered rows were formatted for
+    private long mRenderedVersion = -1;
+    private long mRenderedToday = Long.MIN_VALUE;
+    private Locale mRenderedLocale;
+    private final StringBuilder mRowBuilder = new StringBuilder(64);
+
     //Create an interface for click handler
     public interface ForecastAdapterOnClickHandler{
         void OnClick(String weatherForDay);
@@ -22,7 +45,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     }
 
     //Create Empty Constructor
-    public ForecastAdapter(ForecastAdapterOnClickHandler clickHandler){
+    public ForecastAdapter(Context context, ForecastAdapterOnClickHandler clickHandler){
+        mContext = context;
         mClickHandler = clickHandler;
 
     }
@@ -45,7 +69,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPoition = getAdapterPosition();
-            String weatherForDay = mWeatherData[adapterPoition];
+            //The row is on its way out or not laid out yet, so there is no day to show
+            if (adapterPoition == RecyclerView.NO_POSITION)
+            {
+                return;
+            }
+            String weatherForDay = getRow(adapterPoition);
             Log.d("ForecastAdapter", "Weather for day: " + weatherForDay);
             mClickHandler.OnClick(weatherForDay);
         }
@@ -71,7 +100,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder( ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-    String WeatherDataForThisDay = mWeatherData[position];
+    String WeatherDataForThisDay = getRow(position);
     forecastAdapterViewHolder.mWeatherTextView.setText(WeatherDataForThisDay);
 
 
@@ -83,14 +112,101 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         {return  0;}
         else
         {
-            return mWeatherData.length;
+            return mWeatherData.size();
         }
     }
 
 
-    public  void setWeatherData(String[] weatherData){
+    /**
+     * Formats the line shown for a day, "date - condition - HIGH / LOW", or returns the one
+     * rendered when it was last bound. Rows are dropped when the units, locale or today change.
+     */
+    String getRow(int position) {
+        PreferencesSnapshot prefs = SunshinePreferences.getSnapshot(mContext);
+        FriendlyDateRenderer dates = SunshineDateUtils.getDateRenderer(mContext);
+        dates.beginBatch(System.currentTimeMillis());
+        Locale locale = Locale.getDefault();
+        if (prefs.getVersion() != mRenderedVersion || dates.getTodayNumber() != mRenderedToday
+                || !locale.equals(mRenderedLocale))
+        {
+            clearRenderedRows();
+            mRenderedVersion = prefs.getVersion();
+            mRenderedToday = dates.getTodayNumber();
+            mRenderedLocale = locale;
+        }
+
+        int slot = position % RENDERED_ROW_CACHE_SIZE;
+        if (mRenderedRows[slot] != null && mRenderedPositions[slot] == position)
+        {
+            return mRenderedRows[slot];
+        }
+        mRowBuilder.setLength(0);
+        mRowBuilder.append(dates.render(mWeatherData.getDate(position), false))
+                .append(" - ")
+                .append(WeatherConditions.getLabel(mContext, mWeatherData.getWeatherId(position)))
+                .append(" - ");
+        WeatherFormatter.getInstance(mContext, prefs).appendHighLow(mRowBuilder,
+                mWeatherData.getMaxTemp(position), mWeatherData.getMinTemp(position));
+        String row = mRowBuilder.toString();
+        mRenderedRows[slot] = row;
+        mRenderedPositions[slot] = position;
+        return row;
+    }
+
+    private void clearRenderedRows() {
+        Arrays.fill(mRenderedRows, null);
+    }
+
+    //Whether a day would be shown the same way in both forecasts
+    private static boolean isSameDay(WeatherBatch oldWeather, WeatherBatch weather, int position) {
+        return oldWeather.getDate(position) == weather.getDate(position)
+                && oldWeather.getWeatherId(position) == weather.getWeatherId(position)
+                && oldWeather.getMinTemp(position) == weather.getMinTemp(position)
+                && oldWeather.getMaxTemp(position) == weather.getMaxTemp(position);
+    }
+
+    /**
+     * Swaps in a new forecast. Nothing is formatted here; each day is formatted when it's bound.
+     * When there was a forecast already, only the days whose values actually changed are
+     * rebound, and days added or dropped at the end are inserted or removed, rather than
+     * redrawing the whole list. If the units, today or the locale have changed since the rows on
+     * screen were formatted, every row is rebound instead.
+     */
+    public  void setWeatherData(WeatherBatch weatherData){
+        WeatherBatch oldWeatherData = mWeatherData;
         mWeatherData = weatherData;
-        notifyDataSetChanged();
+        clearRenderedRows();
+        if (oldWeatherData == null || weatherData == null || !isRenderedRowsCurrent())
+        {
+            notifyDataSetChanged();
+            return;
+        }
+
+        int common = Math.min(oldWeatherData.size(), weatherData.size());
+        for (int i = 0; i < common; i++)
+        {
+            if (!isSameDay(oldWeatherData, weatherData, i))
+            {
+                notifyItemChanged(i);
+            }
+        }
+        if (weatherData.size() > common)
+        {
+            notifyItemRangeInserted(common, weatherData.size() - common);
+        }
+        else if (oldWeatherData.size() > common)
+        {
+            notifyItemRangeRemoved(common, oldWeatherData.size() - common);
+        }
+    }
+
+    //Whether rows already on screen were formatted with the current settings, today and locale
+    private boolean isRenderedRowsCurrent() {
+        FriendlyDateRenderer dates = SunshineDateUtils.getDateRenderer(mContext);
+        dates.beginBatch(System.currentTimeMillis());
+        return SunshinePreferences.getSnapshot(mContext).getVersion() == mRenderedVersion
+                && dates.getTodayNumber() == mRenderedToday
+                && Locale.getDefault().equals(mRenderedLocale);
     }
 
 
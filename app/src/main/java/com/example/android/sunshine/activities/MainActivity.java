@@ -38,14 +38,20 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.ForecastRepository;
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherBatch;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
 
 import java.net.URL;
 
 public class MainActivity extends AppCompatActivity implements ForecastAdapter.ForecastAdapterOnClickHandler,
-        LoaderManager.LoaderCallbacks<String[]> , SharedPreferences.OnSharedPreferenceChangeListener
+        LoaderManager.LoaderCallbacks<WeatherBatch> , SharedPreferences.OnSharedPreferenceChangeListener,
+        ForecastRepository.RefreshListener
     {
 
     //private TextView weatherDisplay;
@@ -71,21 +77,28 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
         mRecyclerView.setHasFixedSize(true);
 
 
-        mForecastAdapter = new ForecastAdapter(this);
+        mForecastAdapter = new ForecastAdapter(this, this);
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        //Revalidate forecasts we already have instead of downloading them again
+        NetworkUtils.setResponseCache(ForecastResponseCache.getInstance(this));
+        //Keep the forecast fresh in the background, so it's already there next time the app opens
+        SunshineSyncUtils.initialize(this);
+
         errorMessage = findViewById(R.id.error_message_display);
         loadingPB  = findViewById(R.id.loadingProgressBar);
 
         int LoaderId = FORECAST_LOADER_ID;
 
-        LoaderManager.LoaderCallbacks<String[]> callback = MainActivity.this;
+        LoaderManager.LoaderCallbacks<WeatherBatch> callback = MainActivity.this;
         Bundle bundleForLoader = null;
         getSupportLoaderManager().initLoader(LoaderId, bundleForLoader, callback);
 
 
         //Register the Preference Listener
         PreferenceManager.getDefaultSharedPreferences(this).registerOnSharedPreferenceChangeListener(this);
+        //Hear about background refreshes, so a failed one on an empty database can show the error
+        ForecastRepository.getInstance(this).addRefreshListener(this);
 
         //loadWeatherData();
     }
@@ -133,16 +146,25 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
 
         @NonNull
         @Override
-        public  Loader<String[]> onCreateLoader(int i,  Bundle bundle) {
-           return new AsyncTaskLoader<String[]>(this){
-               //Create an array string to get the weather data after loading is done
-               String[] mWeatherData = null;
+        public  Loader<WeatherBatch> onCreateLoader(int i,  Bundle bundle) {
+           return new AsyncTaskLoader<WeatherBatch>(this){
+               //Keep the forecast after loading is done; the adapter formats each day as it's shown
+               WeatherBatch mWeatherData = null;
+               //Reloads whenever the weather table changes, such as when a background refresh lands
+               final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+               boolean mObserving = false;
 
 
 
                @Override
                protected void onStartLoading() {
                    super.onStartLoading();
+                   if (!mObserving)
+                   {
+                       getContext().getContentResolver().registerContentObserver(
+                               WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+                       mObserving = true;
+                   }
                    //On Start Loading,  deliver the data once done else show loading indicator
                    if (mWeatherData != null)
                    {
@@ -151,43 +173,51 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
                    else
                    {
                        loadingPB.setVisibility(View.VISIBLE);
+                   }
+                   if (mWeatherData == null || takeContentChanged())
+                   {
                        forceLoad();
                    }
 
                }
 
                @Override
-               public String[] loadInBackground() {
-                   String location = SunshinePreferences.getPreferredWeatherLocation(MainActivity.this);
-                   URL weatherRequestUrl = NetworkUtils.buildUrl(location);
-                   //Now we hav got the URL,  then request for the weather data
-                   //The request return data into JSON format so appropriately capture it
-                   try{
-                       String jsonWatherData= NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
-                       //Convertt it into simple weather data;
-                       String[] simpleJsonWeatherData = OpenWeatherJsonUtils.getSimpleWeatherStringsFromJson(MainActivity.this,jsonWatherData);
-
-                       return simpleJsonWeatherData;
-
-                   }catch (Exception e)
-                   {
-                       e.printStackTrace();
-                       return  null;
-                   }
+               public WeatherBatch loadInBackground() {
+                   //Answer from the database straight away, and only go to the network if it's stale
+                   ForecastRepository repository = ForecastRepository.getInstance(getContext());
+                   WeatherBatch weather = repository.loadForecast();
+                   repository.revalidateIfStale();
+                   return weather;
                }
 
-               public void deliverResult(String[] data){
+               public void deliverResult(WeatherBatch data){
                    mWeatherData = data;
                    super.deliverResult(data);
                }
+
+               @Override
+               protected void onReset() {
+                   super.onReset();
+                   if (mObserving)
+                   {
+                       getContext().getContentResolver().unregisterContentObserver(mObserver);
+                       mObserving = false;
+                   }
+                   mWeatherData = null;
+               }
            };
         }
 
         @Override
-        public void onLoadFinished(@NonNull Loader<String[]> loader, String[] data) {
+        public void onLoadFinished(@NonNull Loader<WeatherBatch> loader, WeatherBatch data) {
+            //Nothing in the database yet, so wait for the refresh before deciding it failed
+            if (data.size() == 0 && ForecastRepository.getInstance(this).isRefreshing())
+            {
+                return;
+            }
             //If data is loaded show  the data else error message
             loadingPB.setVisibility(View.INVISIBLE);
-            if(data == null)
+            if(data.size() == 0)
             {
                 showErrorMessage();
             }
@@ -200,7 +230,17 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
         }
 
         @Override
-        public void onLoaderReset(@NonNull Loader<String[]> loader) {
+        public void onRefreshFinished(boolean success) {
+            loadingPB.setVisibility(View.INVISIBLE);
+            //A successful refresh reloads through the content observer; a failed one changes nothing
+            if (!success && mForecastAdapter.getItemCount() == 0)
+            {
+                showErrorMessage();
+            }
+        }
+
+        @Override
+        public void onLoaderReset(@NonNull Loader<WeatherBatch> loader) {
 
         }
 
@@ -208,6 +248,7 @@ public class MainActivity extends AppCompatActivity implements ForecastAdapter.F
         private void invalidateData(){
             mForecastAdapter.setWeatherData(null);
         }
+
 /*****************************************END******************************************************/
 
 
@@ -253,10 +294,9 @@ public  void openLocationMap(){
             int id = item.getItemId();
 
             if(id == R.id.action_refresh){
-                mForecastAdapter.setWeatherData(null);
-                //loadWeatherData();
-                invalidateData();
-                getSupportLoaderManager().restartLoader(FORECAST_LOADER_ID, null, this);
+                //Keep showing what we have; the list updates itself once the refresh lands
+                loadingPB.setVisibility(View.VISIBLE);
+                ForecastRepository.getInstance(this).refresh();
 
                 return true;
             } else if( id ==R.id.action_open_map)
@@ -278,6 +318,18 @@ public  void openLocationMap(){
 
         @Override
         public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String s) {
+            //Every sync records its time here; that isn't a setting the user changed
+            if (SunshinePreferences.isSyncRecordKey(s))
+            {
+                return;
+            }
+            //The forecast we have is for the old location now
+            if (getString(R.string.location_key).equals(s)
+                    || SunshinePreferences.PREF_COORD_LAT.equals(s)
+                    || SunshinePreferences.PREF_COORD_LONG.equals(s))
+            {
+                ForecastRepository.getInstance(this).invalidate();
+            }
             preferenceFlag  = true;
 
         }
@@ -307,6 +359,7 @@ public  void openLocationMap(){
         protected void onDestroy() {
             super.onDestroy();
             PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(this);
+            ForecastRepository.getInstance(this).removeRefreshListener(this);
         }
 
 
@@ -0,0 +1,195 @@
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.sunshine.sync.SunshineSyncTask;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The one place the UI gets its forecast from. Reads are always answered straight from
+ * {@link WeatherProvider}, so whatever is already in the database shows up without waiting on
+ * the network. If that forecast is older than the freshness window, a refresh is started in the
+ * background at the same time. The refresh writes through the provider, whose change
+ * notification tells anyone watching {@link WeatherContract.WeatherEntry#CONTENT_URI} to read
+ * again.
+ * <p>
+ * At most one refresh runs at a time; asking again while one is running does nothing.
+ */
+public final class ForecastRepository {
+
+    private static final String TAG = ForecastRepository.class.getSimpleName();
+
+    /* The server only updates its forecasts a few times a day */
+    public static final long DEFAULT_FRESHNESS_MILLIS = 3 * 60 * 60 * 1000;
+
+    /**
+     * Told when a background refresh finishes, on the main thread.
+     */
+    public interface RefreshListener {
+
+        /**
+         * @param success false if the forecast couldn't be fetched, in which case the database
+         *                still holds whatever it held before
+         */
+        void onRefreshFinished(boolean success);
+    }
+
+    private static ForecastRepository sInstance;
+
+    private final Context mContext;
+    private final ExecutorService mRefreshExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<RefreshListener> mListeners = new ArrayList<>();
+
+    private volatile long mFreshnessMillis = DEFAULT_FRESHNESS_MILLIS;
+    private boolean mRefreshing;
+
+    public static synchronized ForecastRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ForecastRepository(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Reads the preferred location's forecast from today onwards out of the database. This never
+     * touches the network, so it is quick, but it must still be called off the main thread.
+     *
+     * @return The forecast in date order, empty if nothing has been fetched yet
+     */
+    public WeatherBatch loadForecast() {
+        WeatherBatch weather = new WeatherBatch();
+        long locationId = findLocationId(SunshinePreferences.getPreferredWeatherLocation(mContext));
+        if (locationId == -1) {
+            return weather;
+        }
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildUpcomingUriForLocation(locationId),
+                null, null, null, null);
+        if (cursor != null) {
+            try {
+                weather.readCursor(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+        return weather;
+    }
+
+    /*
+     * Looks up a location's _ID in the location table, or returns -1 if no forecast has ever
+     * been stored for it.
+     */
+    private long findLocationId(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{location}, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return true if the forecast in the database is older than the freshness window, or if
+     * there has never been one
+     */
+    public boolean isStale() {
+        long lastSync = SunshinePreferences.getLastSyncTime(mContext);
+        return lastSync == 0 || System.currentTimeMillis() - lastSync > mFreshnessMillis;
+    }
+
+    /**
+     * Starts a background refresh if the forecast in the database is stale.
+     *
+     * @return true if a refresh is running once this returns
+     */
+    public boolean revalidateIfStale() {
+        return isStale() && refresh();
+    }
+
+    /**
+     * Starts a background refresh whether or not the forecast is stale.
+     *
+     * @return true if a refresh is running once this returns
+     */
+    public synchronized boolean refresh() {
+        if (!mRefreshing) {
+            mRefreshing = true;
+            mRefreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean success = false;
+                    try {
+                        SunshineSyncTask.syncWeather(mContext);
+                        success = true;
+                    } catch (IOException e) {
+                        Log.w(TAG, "Couldn't refresh the forecast", e);
+                    } finally {
+                        finishRefresh(success);
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Marks the forecast in the database as stale, for example because the location changed, so
+     * the next read starts a refresh.
+     */
+    public void invalidate() {
+        SunshinePreferences.saveLastSyncTime(mContext, 0);
+    }
+
+    public synchronized boolean isRefreshing() {
+        return mRefreshing;
+    }
+
+    /**
+     * @param freshnessMillis How old the forecast may get before a read starts a refresh
+     */
+    public void setFreshnessWindow(long freshnessMillis) {
+        mFreshnessMillis = freshnessMillis;
+    }
+
+    public synchronized void addRefreshListener(RefreshListener listener) {
+        mListeners.add(listener);
+    }
+
+    public synchronized void removeRefreshListener(RefreshListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private synchronized void finishRefresh(final boolean success) {
+        mRefreshing = false;
+        final RefreshListener[] listeners =
+                mListeners.toArray(new RefreshListener[mListeners.size()]);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (RefreshListener listener : listeners) {
+                    listener.onRefreshFinished(success);
+                }
+            }
+        });
+    }
+}
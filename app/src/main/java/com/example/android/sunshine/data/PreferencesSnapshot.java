@@ -0,0 +1,55 @@
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.R;
+
+/**
+ * An immutable copy of the settings that formatting reads for every row, taken once from
+ * SharedPreferences. Reading a field here costs nothing, where every lookup through
+ * SharedPreferences also resolves its key and default from resources.
+ * <p>
+ * {@link SunshinePreferences#getSnapshot} hands out the current snapshot and replaces it with a
+ * new one whenever a setting changes, so a snapshot that has been handed out never changes under
+ * its reader. The version tells successive snapshots apart, so anything derived from one can be
+ * checked for staleness with a single comparison.
+ */
+public final class PreferencesSnapshot {
+
+    private final long mVersion;
+    private final boolean mMetric;
+
+    PreferencesSnapshot(long version, boolean metric) {
+        mVersion = version;
+        mMetric = metric;
+    }
+
+    /**
+     * Reads the settings the snapshot holds.
+     *
+     * @param context Context used to resolve the preference keys
+     * @param prefs   The SharedPreferences to read
+     * @param version The new snapshot's version, above every earlier one
+     * @return A snapshot of the current settings
+     */
+    static PreferencesSnapshot load(Context context, SharedPreferences prefs, long version) {
+        String metric = context.getString(R.string.pref_unit_metric);
+        String units = prefs.getString(context.getString(R.string.temp_units_key), metric);
+        return new PreferencesSnapshot(version, metric.equals(units));
+    }
+
+    /**
+     * @return Which snapshot this is; a later snapshot always has a higher version
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return true if temperatures and wind speeds should be shown in metric units
+     */
+    public boolean isMetric() {
+        return mMetric;
+    }
+}
@@ -21,6 +21,11 @@ import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.R;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 public class SunshinePreferences {
 
     /*
@@ -36,6 +41,19 @@ public class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * Every location the device keeps forecasts for, besides the preferred one. These are
+     * refreshed together in a single batch.
+     */
+    public static final String PREF_TRACKED_LOCATIONS = "tracked_locations";
+
+    /* When the forecast in the database was last fetched from the server */
+    public static final String PREF_LAST_SYNC = "last_sync";
+
+    /* How long the last scheduled sync took, and how many rows it wrote */
+    public static final String PREF_LAST_SYNC_DURATION = "last_sync_duration";
+    public static final String PREF_LAST_SYNC_ROWS = "last_sync_rows";
+
     /*
      * Before you implement methods to return your REAL preference for location,
      * we provide some default values to work with.
@@ -46,6 +64,15 @@ public class SunshinePreferences {
     private static final String DEFAULT_MAP_LOCATION =
             "1600 Amphitheatre Parkway, Mountain View, CA 94043";
 
+    /* The settings formatting reads, replaced whole whenever one of them changes */
+    private static volatile PreferencesSnapshot sSnapshot;
+
+    /*
+     * SharedPreferences only holds its listeners weakly, so this one is kept here for as long
+     * as the process lives.
+     */
+    private static SharedPreferences.OnSharedPreferenceChangeListener sSnapshotUpdater;
+
     /**
      * Helper method to handle setting location details in Preferences (City Name, Latitude,
      * Longitude)
@@ -56,7 +83,10 @@ public class SunshinePreferences {
      * @param lon      The longitude of the city
      */
     static public void setLocationDetails(Context c, String cityName, double lat, double lon) {
-        /** This will be implemented in a future lesson **/
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(c).edit();
+        editor.putString(PREF_CITY_NAME, cityName);
+        putCoordinates(editor, lat, lon);
+        editor.apply();
     }
 
     /**
@@ -69,7 +99,19 @@ public class SunshinePreferences {
      * @param lon             The longitude of the city
      */
     static public void setLocation(Context c, String locationSetting, double lat, double lon) {
-        /** This will be implemented in a future lesson **/
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(c).edit();
+        editor.putString(c.getString(R.string.location_key), locationSetting);
+        putCoordinates(editor, lat, lon);
+        editor.apply();
+    }
+
+    /*
+     * SharedPreferences has no double, so the coordinates are stored as their raw bits to keep
+     * every digit.
+     */
+    private static void putCoordinates(SharedPreferences.Editor editor, double lat, double lon) {
+        editor.putLong(PREF_COORD_LAT, Double.doubleToRawLongBits(lat));
+        editor.putLong(PREF_COORD_LONG, Double.doubleToRawLongBits(lon));
     }
 
     /**
@@ -78,7 +120,10 @@ public class SunshinePreferences {
      * @param c Context used to get the SharedPreferences
      */
     static public void resetLocationCoordinates(Context c) {
-        /** This will be implemented in a future lesson **/
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(c).edit();
+        editor.remove(PREF_COORD_LAT);
+        editor.remove(PREF_COORD_LONG);
+        editor.apply();
     }
 
     /**
@@ -102,6 +147,109 @@ public class SunshinePreferences {
         return pref.getString(location_key, defaultLocation);
     }
 
+    /**
+     * Returns every location whose forecast should be kept up to date. The preferred location
+     * always comes first, followed by any other tracked locations.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return The tracked locations, never empty
+     */
+    public static String[] getTrackedLocations(Context context) {
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
+        String preferredLocation = getPreferredWeatherLocation(context);
+        Set<String> tracked = pref.getStringSet(PREF_TRACKED_LOCATIONS, null);
+
+        LinkedHashSet<String> locations = new LinkedHashSet<>();
+        locations.add(preferredLocation);
+        if (tracked != null) {
+            locations.addAll(tracked);
+        }
+        return locations.toArray(new String[locations.size()]);
+    }
+
+    /**
+     * Replaces the set of extra locations to keep forecasts for. The preferred location is
+     * always tracked and doesn't need to be included.
+     *
+     * @param context   Context used to get the SharedPreferences
+     * @param locations The locations to track
+     */
+    public static void setTrackedLocations(Context context, String[] locations) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(context).edit();
+        editor.putStringSet(PREF_TRACKED_LOCATIONS, new HashSet<>(Arrays.asList(locations)));
+        editor.apply();
+    }
+
+    /**
+     * Returns when the forecast in the database was last fetched from the server.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return The time of the last successful sync in milliseconds, or 0 if there hasn't been one
+     */
+    public static long getLastSyncTime(Context context) {
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
+        return pref.getLong(PREF_LAST_SYNC, 0);
+    }
+
+    /**
+     * Records when the forecast in the database was last fetched from the server.
+     *
+     * @param context  Context used to get the SharedPreferences
+     * @param syncTime The time of the sync in milliseconds, or 0 to mark the forecast as stale
+     */
+    public static void saveLastSyncTime(Context context, long syncTime) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(context).edit();
+        editor.putLong(PREF_LAST_SYNC, syncTime);
+        editor.apply();
+    }
+
+    /**
+     * Records how the last scheduled sync went.
+     *
+     * @param context        Context used to get the SharedPreferences
+     * @param durationMillis How long the sync took
+     * @param rowsWritten    How many weather rows it wrote
+     */
+    public static void saveSyncRun(Context context, long durationMillis, int rowsWritten) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(context).edit();
+        editor.putLong(PREF_LAST_SYNC_DURATION, durationMillis);
+        editor.putInt(PREF_LAST_SYNC_ROWS, rowsWritten);
+        editor.apply();
+    }
+
+    /**
+     * @param context Context used to get the SharedPreferences
+     * @return How long the last scheduled sync took in milliseconds, or 0 if none has run
+     */
+    public static long getLastSyncDuration(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getLong(PREF_LAST_SYNC_DURATION, 0);
+    }
+
+    /**
+     * @param context Context used to get the SharedPreferences
+     * @return How many weather rows the last scheduled sync wrote
+     */
+    public static int getLastSyncRowCount(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(PREF_LAST_SYNC_ROWS, 0);
+    }
+
+    /**
+     * Tells the bookkeeping the sync writes apart from settings the user changed.
+     *
+     * @param key A key passed to a SharedPreferences listener
+     * @return true if the key is one of the sync records rather than a setting
+     */
+    public static boolean isSyncRecordKey(String key) {
+        return PREF_LAST_SYNC.equals(key)
+                || PREF_LAST_SYNC_DURATION.equals(key)
+                || PREF_LAST_SYNC_ROWS.equals(key);
+    }
+
     /**
      * Returns true if the user has selected metric temperature display.
      *
@@ -109,25 +257,45 @@ public class SunshinePreferences {
      * @return true If metric display should be used
      */
     public static boolean isMetric(Context context) {
+        return getSnapshot(context).isMetric();
+    }
 
-        //Get the Units Preference
-        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String key_for_units = context.getString(R.string.temp_units_key);
-        String defaultUnit = context.getString(R.string.pref_unit_metric);
-        //Get the preferred units using key
-        String preferredUnits=  pref.getString(key_for_units,defaultUnit );
-        String metric = context.getString(R.string.pref_unit_metric);
-        boolean ismetric ;
-        if (preferredUnits == metric)
-        {
-            ismetric = true;
-        }else
-        {
-            ismetric = false;
+    /**
+     * Returns the settings formatting needs, read once and kept in memory. The first call loads
+     * them and starts listening for changes; every later call just returns the current snapshot,
+     * which is replaced as soon as a setting changes. Formatting a list should take the snapshot
+     * once and read it for every row.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return The current snapshot, never null
+     */
+    public static PreferencesSnapshot getSnapshot(Context context) {
+        PreferencesSnapshot snapshot = sSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (SunshinePreferences.class) {
+            if (sSnapshot == null) {
+                final Context appContext = context.getApplicationContext();
+                SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(appContext);
+                sSnapshotUpdater = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                        /* The sync records change on every sync and aren't in the snapshot */
+                        if (isSyncRecordKey(key)) {
+                            return;
+                        }
+                        synchronized (SunshinePreferences.class) {
+                            sSnapshot = PreferencesSnapshot.load(appContext, prefs,
+                                    sSnapshot.getVersion() + 1);
+                        }
+                    }
+                };
+                pref.registerOnSharedPreferenceChangeListener(sSnapshotUpdater);
+                sSnapshot = PreferencesSnapshot.load(appContext, pref, 0);
+            }
+            return sSnapshot;
         }
-        return  ismetric;
-
     }
 
     /**
@@ -139,19 +307,25 @@ public class SunshinePreferences {
      * @return An array containing the two coordinate values.
      */
     public static double[] getLocationCoordinates(Context context) {
-        return getDefaultWeatherCoordinates();
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
+        double[] coordinates = new double[2];
+        coordinates[0] = Double.longBitsToDouble(pref.getLong(PREF_COORD_LAT,
+                Double.doubleToRawLongBits(0.0)));
+        coordinates[1] = Double.longBitsToDouble(pref.getLong(PREF_COORD_LONG,
+                Double.doubleToRawLongBits(0.0)));
+        return coordinates;
     }
 
     /**
-     * Returns true if the latitude and longitude values are available. The latitude and
-     * longitude will not be available until the lesson where the PlacePicker API is taught.
+     * Returns true if the latitude and longitude values are available, which is only the case
+     * once they have been stored by {@link #setLocation} or {@link #setLocationDetails}.
      *
      * @param context used to get the SharedPreferences
      * @return true if lat/long are set
      */
     public static boolean isLocationLatLonAvailable(Context context) {
-        /** This will be implemented in a future lesson **/
-        return false;
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
+        return pref.contains(PREF_COORD_LAT) && pref.contains(PREF_COORD_LONG);
     }
 
     private static String getDefaultWeatherLocation() {
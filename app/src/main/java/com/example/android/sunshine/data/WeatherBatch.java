@@ -0,0 +1,197 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * Holds a run of weather rows in parallel primitive arrays, one array per column of
+ * {@link WeatherContract.WeatherEntry}, instead of one ContentValues map per day. Parsing a
+ * forecast into a batch boxes nothing; rows only become ContentValues at the point they are
+ * handed to {@link WeatherProvider#bulkInsert}.
+ * <p>
+ * A batch can be cleared and filled again, reusing the arrays it has already grown.
+ */
+public final class WeatherBatch {
+
+    /* Enough for a two week forecast without growing */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int mSize;
+
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidity;
+    private double[] mPressure;
+    private double[] mWindSpeed;
+    private double[] mDegrees;
+
+    public WeatherBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public WeatherBatch(int capacity) {
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidity = new double[capacity];
+        mPressure = new double[capacity];
+        mWindSpeed = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Empties the batch so it can be filled again. The arrays are kept at their current size.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Grows the arrays, if needed, so that the batch can hold at least the given number of rows
+     * without growing again.
+     *
+     * @param capacity The number of rows the batch should be able to hold
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= mDates.length) {
+            return;
+        }
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * Appends a row to the end of the batch.
+     *
+     * @return The position of the new row
+     */
+    public int add(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                   double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            /* Doubling nothing is still nothing, so a batch made empty starts at the default */
+            ensureCapacity(Math.max(DEFAULT_CAPACITY, mSize * 2));
+        }
+        int position = mSize++;
+        mDates[position] = date;
+        mWeatherIds[position] = weatherId;
+        mMinTemps[position] = minTemp;
+        mMaxTemps[position] = maxTemp;
+        mHumidity[position] = humidity;
+        mPressure[position] = pressure;
+        mWindSpeed[position] = windSpeed;
+        mDegrees[position] = degrees;
+        return position;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int position) {
+        return mDates[position];
+    }
+
+    public int getWeatherId(int position) {
+        return mWeatherIds[position];
+    }
+
+    public double getMinTemp(int position) {
+        return mMinTemps[position];
+    }
+
+    public double getMaxTemp(int position) {
+        return mMaxTemps[position];
+    }
+
+    public double getHumidity(int position) {
+        return mHumidity[position];
+    }
+
+    public double getPressure(int position) {
+        return mPressure[position];
+    }
+
+    public double getWindSpeed(int position) {
+        return mWindSpeed[position];
+    }
+
+    public double getDegrees(int position) {
+        return mDegrees[position];
+    }
+
+    /**
+     * Replaces the contents of the batch with every row of a cursor over the weather table. The
+     * cursor must include all the {@link WeatherContract.WeatherEntry} columns; it is read from
+     * the start and left positioned after the last row.
+     *
+     * @param cursor The rows to copy
+     */
+    public void readCursor(Cursor cursor) {
+        clear();
+        ensureCapacity(mSize + cursor.getCount());
+        int dateIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_DATE);
+        int weatherIdIndex =
+                cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        int minIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        int maxIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        int humidityIndex =
+                cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        int pressureIndex =
+                cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        int windIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        int degreesIndex =
+                cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            add(cursor.getLong(dateIndex), cursor.getInt(weatherIdIndex),
+                    cursor.getDouble(minIndex), cursor.getDouble(maxIndex),
+                    cursor.getDouble(humidityIndex), cursor.getDouble(pressureIndex),
+                    cursor.getDouble(windIndex), cursor.getDouble(degreesIndex));
+        }
+    }
+
+    /**
+     * Builds the ContentValues for a single row of the batch.
+     *
+     * @param position The row to convert
+     * @return ContentValues keyed by the {@link WeatherContract.WeatherEntry} column names
+     */
+    public ContentValues toContentValues(int position) {
+        ContentValues weatherValues = new ContentValues(8);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, mDates[position]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[position]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[position]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[position]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidity[position]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressure[position]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeed[position]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees[position]);
+        return weatherValues;
+    }
+
+    /**
+     * Converts every row of the batch into ContentValues, ready for
+     * {@link android.content.ContentResolver#bulkInsert}.
+     *
+     * @return One ContentValues per row, in the order the rows were added
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] weatherContentValues = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            weatherContentValues[i] = toContentValues(i);
+        }
+        return weatherContentValues;
+    }
+}
@@ -1,18 +1,94 @@
 package com.example.android.sunshine.data;
 
+import android.content.ContentUris;
+import android.net.Uri;
 import android.provider.BaseColumns;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 public class WeatherContract {
 
     public final static String CONTENT_AUTHORITY = "com.example.android.sunshine";
+    /* The base of every URI apps will use to contact the content provider for Sunshine */
+    public final static Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public final static String PATH_WEATHER = "weather";
+    /* location, and weather/location/{id}/... for one location's days */
+    public final static String PATH_LOCATION = "location";
+    /*
+     * weather/location/{id}/range/{from}/{to} and weather/location/{id}/upcoming, both served
+     * straight off the location and date index
+     */
+    public final static String PATH_RANGE = "range";
+    public final static String PATH_UPCOMING = "upcoming";
+    /* weather/before/{date}, deleted to prune every day older than the date */
+    public final static String PATH_BEFORE = "before";
+    /* weather/location/{id}/stats, aggregates computed by SQLite */
+    public final static String PATH_STATS = "stats";
+    /*
+     * Passed to ContentResolver.call on CONTENT_AUTHORITY's URIs to read the provider's row
+     * cache statistics, under the WeatherRowCache.KEY_ constants
+     */
+    public final static String METHOD_ROW_CACHE_STATS = "row_cache_stats";
+
+    /* Inner class that defines the table contents of the location table */
+    public final static class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query and add locations */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /* Keeps each location setting to a single row */
+        public static final String INDEX_LOCATION_SETTING = "location_setting_idx";
+
+        /* The location as the user entered it and as it is sent to the server, e.g. "94043,USA" */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        /*
+         * The location's coordinates, snapped to the grid of
+         * {@link com.example.android.sunshine.utilities.CoordinateGrid}, or null while they
+         * aren't known
+         */
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        /**
+         * @param id The location's _ID
+         * @return Uri of a single location, as returned when it is inserted
+         */
+        public static Uri buildLocationUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
 
     //Class WeatherEntry that implements Base Columns
     /* Inner class that defines the table contents of the weather table */
     public final static class WeatherEntry implements BaseColumns {
 
+        /* The base CONTENT_URI used to query the Weather table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEATHER)
+                .build();
+
+        /* The most rows a range query returns, about three years of days */
+        public static final int MAX_RANGE_DAYS = 1100;
+        /* The most rows an upcoming query returns; the server never forecasts further ahead */
+        public static final int MAX_UPCOMING_DAYS = 16;
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
+
+        /*
+         * The index that per-location lookups, range queries and the upsert all go through. It
+         * keeps each location's days together and in date order, so reading one location never
+         * has to step over another's rows.
+         */
+        public static final String INDEX_LOCATION_DATE = "weather_location_date_idx";
+
+        /* The _ID of the row in the location table this day's weather is for */
+        public static final String COLUMN_LOCATION_ID = "location_id";
         /*
          * The date column will store the UTC date that correlates to the local date for which
          * each particular weather row represents. For example, if you live in the Eastern
@@ -49,6 +125,155 @@ public class WeatherContract {
          */
         public static final String COLUMN_DEGREES = "degrees";
 
+        /**
+         * Builds a URI that adds the weather date to the end of the forecast content URI path.
+         * This is used to query details about a single weather entry by date. With more than one
+         * location stored there is a row per location; use
+         * {@link #buildWeatherUriForLocationWithDate} for just one of them.
+         *
+         * @param date Normalized date in milliseconds
+         * @return Uri to query details about a single weather entry
+         */
+        public static Uri buildWeatherUriWithDate(long date) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for every day stored for one location, in date order. Weather for the
+         * location is also bulk inserted through this URI.
+         *
+         * @param locationId The location's _ID in the location table
+         * @return Uri to query or insert a location's days
+         */
+        public static Uri buildWeatherUriForLocation(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
 
+        /**
+         * Builds a URI for one location's weather on a single day.
+         *
+         * @param locationId The location's _ID in the location table
+         * @param date       Normalized date in milliseconds
+         * @return Uri to query a location's day
+         */
+        public static Uri buildWeatherUriForLocationWithDate(long locationId, long date) {
+            return buildWeatherUriForLocation(locationId).buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for one location's forecast from today onwards.
+         *
+         * @param locationId The location's _ID in the location table
+         * @return Uri to query a location's upcoming days
+         */
+        public static Uri buildUpcomingUriForLocation(long locationId) {
+            return buildWeatherUriForLocation(locationId).buildUpon()
+                    .appendPath(PATH_UPCOMING)
+                    .build();
+        }
+
+        /**
+         * Builds a URI for every day of one location from one normalized date to another, both
+         * included, in date order.
+         *
+         * @param locationId The location's _ID in the location table
+         * @param fromDate   Normalized date of the first day, in milliseconds
+         * @param toDate     Normalized date of the last day, in milliseconds
+         * @return Uri to query a range of days
+         */
+        public static Uri buildWeatherUriForRange(long locationId, long fromDate, long toDate) {
+            return buildWeatherUriForLocation(locationId).buildUpon()
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(fromDate))
+                    .appendPath(Long.toString(toDate))
+                    .build();
+        }
+
+        /**
+         * Builds a URI covering every day before a normalized date. Deleting it prunes those
+         * days in small batches, see {@link WeatherRetention}.
+         *
+         * @param date Normalized date of the first day to keep, in milliseconds
+         * @return Uri to delete the days before the date
+         */
+        public static Uri buildWeatherUriBefore(long date) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_BEFORE)
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Returns just the selection part of the weather query from a normalized today value.
+         * This is used to get a weather forecast from today's date. To make this easy to use
+         * in compound selection, we embed today's date as an argument in the query.
+         *
+         * @return The selection part of the weather query for today onwards
+         */
+        public static String getSqlSelectForTodayOnwards() {
+            return COLUMN_DATE + " >= " + SunshineDateUtils.getNormalizedToday();
+        }
+
+    }
+
+    /*
+     * Inner class that defines the columns of the aggregate rows returned by
+     * weather/location/{id}/stats. Each row sums up a group of days.
+     */
+    public final static class StatsEntry {
+
+        /* Query parameters: the first and last normalized dates to include, and the grouping */
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+        public static final String PARAM_GROUP_BY = "group";
+
+        /* One row per day, per week starting on Monday, or per weather condition */
+        public static final String GROUP_BY_DAY = "day";
+        public static final String GROUP_BY_WEEK = "week";
+        public static final String GROUP_BY_CONDITION = "condition";
+
+        /*
+         * What the row is for: the normalized date of the day, the normalized date of the
+         * week's Monday, or the weather ID, depending on the grouping
+         */
+        public static final String COLUMN_GROUP = "stats_group";
+        /* How many days the row sums up */
+        public static final String COLUMN_DAYS = "days";
+        /* The lowest minimum and highest maximum temperature, in °C */
+        public static final String COLUMN_MIN_TEMP = "min_temp";
+        public static final String COLUMN_MAX_TEMP = "max_temp";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+        /* Days with thunderstorms, drizzle or rain, weather IDs 200 to 599 */
+        public static final String COLUMN_RAINY_DAYS = "rainy_days";
+
+        /**
+         * Builds a URI for one location's aggregates between two normalized dates, both
+         * included.
+         *
+         * @param locationId The location's _ID in the location table
+         * @param fromDate   Normalized date of the first day, in milliseconds
+         * @param toDate     Normalized date of the last day, in milliseconds
+         * @param groupBy    {@link #GROUP_BY_DAY}, {@link #GROUP_BY_WEEK} or
+         *                   {@link #GROUP_BY_CONDITION}
+         * @return Uri to query the aggregates
+         */
+        public static Uri buildStatsUri(long locationId, long fromDate, long toDate,
+                                        String groupBy) {
+            return WeatherEntry.buildWeatherUriForLocation(locationId).buildUpon()
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(fromDate))
+                    .appendQueryParameter(PARAM_TO, Long.toString(toDate))
+                    .appendQueryParameter(PARAM_GROUP_BY, groupBy)
+                    .build();
+        }
     }
 }
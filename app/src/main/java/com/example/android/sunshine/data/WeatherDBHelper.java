@@ -1,9 +1,13 @@
 package com.example.android.sunshine.data;
 
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 /**
  * Manages a local database for weather data.
@@ -27,12 +31,97 @@ public class WeatherDBHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    static final int DATABASE_VERSION = 6;
+
+    /* What PRAGMA auto_vacuum reports once the database is in incremental mode */
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+
+    /* Oldest version the migrations below know how to carry forward without losing rows */
+    private static final int OLDEST_MIGRATABLE_VERSION = 3;
+
+    /* The columns every version of the weather table has had, copied across by the migrations */
+    private static final String WEATHER_COLUMNS =
+            "_id, date, weather_id, min, max, humidity, pressure, wind, degrees";
+
+    /* Needed by migrations that fill in data the old schema didn't have */
+    private final Context mContext;
 
 
     //Constructor
     public WeatherDBHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /* Lets tests open a database of their own instead of the app's */
+    WeatherDBHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context;
+        /*
+         * With write-ahead logging, a sync writing a long transaction no longer locks out the
+         * UI's queries: readers see the last committed data through their own connections from
+         * the pool while the writer appends to the log.
+         */
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * Turns on foreign key enforcement for every connection, so a day of weather can't be
+     * written for a location that doesn't exist, and deleting a location takes its weather with
+     * it. Called before onCreate and onUpgrade, and only from Jelly Bean on; onOpen covers
+     * older devices.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
+    /**
+     * Before Jelly Bean the helper can't be asked for write-ahead logging or foreign keys up
+     * front, so they are switched on here instead, once the database is open.
+     * <p>
+     * This is also where the database is switched to incremental auto-vacuum. Android has
+     * already created its own metadata table by the time onCreate runs, so the mode can only
+     * be changed by rebuilding the file with a VACUUM. That happens once, here, outside any
+     * transaction; after that, pruning reclaims free pages a few at a time.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+            db.execSQL("PRAGMA foreign_keys = ON");
+        }
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
+
+    /**
+     * Returns up to the given number of free pages to the file system. Each freed page is
+     * reported as a row, so the cursor has to be read to the end for all of them to be freed.
+     * Must not be called inside a transaction.
+     *
+     * @param db    The database to shrink
+     * @param pages The most pages to free
+     */
+    static void incrementalVacuum(SQLiteDatabase db, int pages) {
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                /* Each step frees one page */
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
 
@@ -43,6 +132,19 @@ public class WeatherDBHelper extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_LOCATION_TABLE =
+                "CREATE TABLE " + WeatherContract.LocationEntry.TABLE_NAME + "(" +
+                        WeatherContract.LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT + " REAL, " +
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG + " REAL);";
+
+        /* Each location setting gets exactly one row, found through this index */
+        final String SQL_LOCATION_SETTING_INDEX =
+                "CREATE UNIQUE INDEX " + WeatherContract.LocationEntry.INDEX_LOCATION_SETTING +
+                        " ON " + WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ");";
+
         //Query to create table in SQL Database
         final String SQL_WEATHER_TABLE =
                 "CREATE TABLE " + WeatherContract.WeatherEntry.TABLE_NAME + "(" +
@@ -51,36 +153,57 @@ public class WeatherDBHelper extends SQLiteOpenHelper {
                          * WeatherEntry implements the interface, "BaseColumns", which does have a field
                          * named "_ID". We use that here to designate our table's primary key.
                          */
-                        WeatherContract.WeatherEntry._ID + "INTEGER PRIMARY KEY AUTOINCREMENT," +
-                        WeatherContract.WeatherEntry.COLUMN_DATE + "INTEGER NOT NULL, " +
-                        WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + "INTEGER NOT NULL, " +
-                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + "REAL NOT NULL, " +
-                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + "REAL NOT NULL, " +
-                        WeatherContract.WeatherEntry.COLUMN_HUMIDITY + "REAL NOT NULL, " +
-                        WeatherContract.WeatherEntry.COLUMN_PRESSURE + "REAL NOT NULL, " +
-                        WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + "REAL NOT NULL," +
-                        WeatherContract.WeatherEntry.COLUMN_DEGREES + "REAL NOT NULL, " +
-                        /*
-                         * To ensure this table can only contain one weather entry per date, we declare
-                         * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                         * SQLite that if we have a weather entry for a certain date and we attempt to
-                         * insert another weather entry with that date, we replace the old weather entry.
-                         */
-                        " UNIQUE ( " + WeatherContract.WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE );";
+                        WeatherContract.WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL " +
+                        "REFERENCES " + WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                        WeatherContract.LocationEntry._ID + ") ON DELETE CASCADE, " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                        WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                        WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                        WeatherContract.WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                        WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                        WeatherContract.WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL);";
+
+        /*
+         * To ensure this table can only contain one weather entry per location and date, we give
+         * the pair a unique index. The location comes first, so each location's days sit next to
+         * each other in date order: a location's forecast is one seek and a short walk along
+         * the index, however many other locations are stored. It is declared explicitly, under
+         * a name, so that the queries in WeatherProvider can be checked against it. There is
+         * deliberately no "ON CONFLICT REPLACE": that would delete and re-insert every row on
+         * every refresh. Instead, WeatherProvider.bulkInsert updates a day's row in place, and
+         * only when its values have actually changed.
+         */
+        final String SQL_LOCATION_DATE_INDEX =
+                "CREATE UNIQUE INDEX " + WeatherContract.WeatherEntry.INDEX_LOCATION_DATE + " ON " +
+                        WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                        WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + ", " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + ");";
 
         //Execute the Query to create the database
+        sqLiteDatabase.execSQL(SQL_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_LOCATION_SETTING_INDEX);
         sqLiteDatabase.execSQL(SQL_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_LOCATION_DATE_INDEX);
 
 
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Even though this database is only a cache for online data, throwing it away on upgrade
+     * would send every user back to the server for a full refetch on the day the update ships.
+     * Instead, the upgrade walks through one migration step per version, each of which keeps
+     * the existing rows. Note that this only fires if you change the version number for your
+     * database (in our case, DATABASE_VERSION). It does NOT depend on the version number for
+     * your application found in your app/build.gradle file.
+     * <p>
+     * When you change the schema, bump DATABASE_VERSION, change onCreate, and add a step here
+     * that takes the previous version to the new one. Steps spell out their SQL in full rather
+     * than reusing onCreate's, so they keep doing exactly the same thing after later changes.
+     * <p>
+     * The whole upgrade runs in one transaction, so a failed step leaves the old version intact.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -88,10 +211,112 @@ public class WeatherDBHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        //Drop Table if Exists
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherContract.WeatherEntry.TABLE_NAME);
-        //Pass the sq lite database to onCreate
-        onCreate(sqLiteDatabase);
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            /* Nothing that old is around to know the layout of, so start again */
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherContract.WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherContract.LocationEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            switch (version) {
+                case 3:
+                    upgradeFrom3To4(sqLiteDatabase);
+                    break;
+                case 4:
+                    upgradeFrom4To5(sqLiteDatabase);
+                    break;
+                case 5:
+                    upgradeFrom5To6(sqLiteDatabase,
+                            SunshinePreferences.getPreferredWeatherLocation(mContext));
+                    break;
+                default:
+                    throw new IllegalStateException("No migration from version " + version);
+            }
+        }
+    }
+
+    /*
+     * Version 4 dropped ON CONFLICT REPLACE from the unique date constraint, so that a refresh
+     * updates rows in place. SQLite can't alter a constraint, so the table is rebuilt.
+     */
+    private static void upgradeFrom3To4(SQLiteDatabase db) {
+        rebuildWeatherTable(db, WEATHER_COLUMNS, WEATHER_COLUMNS,
+                "CREATE TABLE weather_migration (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "date INTEGER NOT NULL, " +
+                "weather_id INTEGER NOT NULL, " +
+                "min REAL NOT NULL, " +
+                "max REAL NOT NULL, " +
+                "humidity REAL NOT NULL, " +
+                "pressure REAL NOT NULL, " +
+                "wind REAL NOT NULL, " +
+                "degrees REAL NOT NULL, " +
+                " UNIQUE (date));");
+    }
 
+    /*
+     * Version 5 moved the date's uniqueness from the table into the named weather_date_idx
+     * index. The table is rebuilt without its constraint, which also drops the automatic index
+     * that came with it, and the named index is created on the result.
+     */
+    private static void upgradeFrom4To5(SQLiteDatabase db) {
+        rebuildWeatherTable(db, WEATHER_COLUMNS, WEATHER_COLUMNS,
+                "CREATE TABLE weather_migration (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "date INTEGER NOT NULL, " +
+                "weather_id INTEGER NOT NULL, " +
+                "min REAL NOT NULL, " +
+                "max REAL NOT NULL, " +
+                "humidity REAL NOT NULL, " +
+                "pressure REAL NOT NULL, " +
+                "wind REAL NOT NULL, " +
+                "degrees REAL NOT NULL);");
+        db.execSQL("CREATE UNIQUE INDEX weather_date_idx ON weather (date);");
+    }
+
+    /*
+     * Version 6 stores weather for more than one location. Until now only the preferred
+     * location was ever written, so every existing row is given to a location row made for it,
+     * and the date's uniqueness moves to the location and date together.
+     */
+    private static void upgradeFrom5To6(SQLiteDatabase db, String preferredLocation) {
+        db.execSQL("CREATE TABLE location (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "location_setting TEXT NOT NULL, " +
+                "coord_lat REAL, " +
+                "coord_long REAL);");
+        db.execSQL("CREATE UNIQUE INDEX location_setting_idx ON location (location_setting);");
+        db.execSQL("INSERT INTO location (location_setting) VALUES (?)",
+                new Object[]{preferredLocation});
+        rebuildWeatherTable(db, "location_id, " + WEATHER_COLUMNS,
+                "(SELECT _id FROM location), " + WEATHER_COLUMNS,
+                "CREATE TABLE weather_migration (" +
+                        "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "location_id INTEGER NOT NULL " +
+                        "REFERENCES location (_id) ON DELETE CASCADE, " +
+                        "date INTEGER NOT NULL, " +
+                        "weather_id INTEGER NOT NULL, " +
+                        "min REAL NOT NULL, " +
+                        "max REAL NOT NULL, " +
+                        "humidity REAL NOT NULL, " +
+                        "pressure REAL NOT NULL, " +
+                        "wind REAL NOT NULL, " +
+                        "degrees REAL NOT NULL);");
+        db.execSQL("CREATE UNIQUE INDEX weather_location_date_idx ON weather (location_id, date);");
+    }
+
+    /*
+     * Creates weather_migration with the given statement, copies every row across, ids and all,
+     * and puts it in place of the weather table. The columns to fill and the expressions to fill
+     * them from are listed separately, so a step can supply a value for a new column.
+     */
+    private static void rebuildWeatherTable(SQLiteDatabase db, String columns, String values,
+                                            String createMigrationTable) {
+        db.execSQL(createMigrationTable);
+        db.execSQL("INSERT INTO weather_migration (" + columns + ") SELECT "
+                + values + " FROM weather");
+        db.execSQL("DROP TABLE weather");
+        db.execSQL("ALTER TABLE weather_migration RENAME TO weather");
     }
 }
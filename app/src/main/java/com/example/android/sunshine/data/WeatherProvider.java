@@ -1,19 +1,32 @@
 package com.example.android.sunshine.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * bulkInsert data, query data, insert, update and delete data, and apply batches of operations
+ * in one transaction.
  * <p>
  **/
 
@@ -23,9 +36,74 @@ public class WeatherProvider extends ContentProvider {
      * advantage of the UriMatcher class to make that matching MUCH easier than doing something
      * ourselves, such as using regular expressions.
      */
+    private static final String TAG = WeatherProvider.class.getSimpleName();
+
     private final static int CODE_WEATHER = 100;
     private final static int CODE_WEATHER_WITH_DATE = 101;
+    private final static int CODE_LOCATION_WEATHER_RANGE = 102;
+    private final static int CODE_LOCATION_WEATHER_UPCOMING = 103;
+    private final static int CODE_WEATHER_BEFORE = 104;
+    private final static int CODE_LOCATION_WEATHER = 105;
+    private final static int CODE_LOCATION_WEATHER_WITH_DATE = 106;
+    private final static int CODE_LOCATION_WEATHER_STATS = 107;
+    private final static int CODE_LOCATION = 200;
+
+    /* Rows deleted per transaction when pruning, so no single write holds the database long */
+    private static final int PRUNE_BATCH_ROWS = 500;
+    /* Free pages handed back to the file system after each pruned batch */
+    private static final int PRUNE_VACUUM_PAGES = 64;
+
+    /*
+     * Per-location queries come back in date order, walked along the location and date index.
+     * The location is always the first argument, so the index can be sought straight to it.
+     */
+    static final String DATE_ORDER = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+    static final String LOCATION_SELECTION = WeatherContract.WeatherEntry.COLUMN_LOCATION_ID
+            + " = ?";
+    static final String LOCATION_DATE_SELECTION = LOCATION_SELECTION + " AND "
+            + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+    static final String RANGE_SELECTION = LOCATION_SELECTION + " AND "
+            + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND "
+            + WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?";
+    static final String UPCOMING_SELECTION = LOCATION_SELECTION + " AND "
+            + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
+
+    /*
+     * The group each day falls in for the stats query. A week starts on Monday: day 0 of the
+     * epoch was a Thursday, so the days since the epoch plus three, modulo seven, is how many
+     * days the date is past its Monday.
+     */
+    private static final String GROUP_DAY = WeatherContract.WeatherEntry.COLUMN_DATE;
+    private static final String GROUP_WEEK = WeatherContract.WeatherEntry.COLUMN_DATE + " - (("
+            + WeatherContract.WeatherEntry.COLUMN_DATE + " / " + SunshineDateUtils.DAY_IN_MILLIS
+            + " + 3) % 7) * " + SunshineDateUtils.DAY_IN_MILLIS;
+    private static final String GROUP_CONDITION = WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+
+    /*
+     * The columns bulkInsert writes, in the order they are bound. The location and the date,
+     * which together pick out the row, must come first.
+     */
+    private static final String[] INSERT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT_WEATHER = buildInsertSql();
+    private static final String SQL_UPDATE_CHANGED_WEATHER = buildUpdateChangedSql();
+    static final String SQL_PRUNE_BATCH = buildPruneBatchSql();
+
     private WeatherDBHelper mOpenHelper;
+    /* Set while applyBatch runs on a thread, collecting the changes it will notify at the end */
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<>();
+    /* Rows of recent per-date and per-location queries, dropped precisely as they are written */
+    private final WeatherRowCache mRowCache = new WeatherRowCache(WeatherRowCache.DEFAULT_MAX_ROWS);
     private UriMatcher uriMatcher = buildUriMatcher();
 
     /**
@@ -64,9 +142,90 @@ public class WeatherProvider extends ContentProvider {
          * that it should return the CODE_WEATHER_WITH_DATE code
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
+
+        /* content://com.example.android.sunshine/weather/location/3, one location's days */
+        String locationWeather = WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_LOCATION + "/#";
+        matcher.addURI(authority, locationWeather, CODE_LOCATION_WEATHER);
+
+        /* content://com.example.android.sunshine/weather/location/3/1472169600000 */
+        matcher.addURI(authority, locationWeather + "/#", CODE_LOCATION_WEATHER_WITH_DATE);
+
+        /* content://com.example.android.sunshine/weather/location/3/range/1472169600000/1472774400000 */
+        matcher.addURI(authority, locationWeather + "/" + WeatherContract.PATH_RANGE + "/#/#",
+                CODE_LOCATION_WEATHER_RANGE);
+
+        /* content://com.example.android.sunshine/weather/location/3/upcoming */
+        matcher.addURI(authority, locationWeather + "/" + WeatherContract.PATH_UPCOMING,
+                CODE_LOCATION_WEATHER_UPCOMING);
+
+        /* content://com.example.android.sunshine/weather/location/3/stats?from=...&to=...&group=week */
+        matcher.addURI(authority, locationWeather + "/" + WeatherContract.PATH_STATS,
+                CODE_LOCATION_WEATHER_STATS);
+
+        /* content://com.example.android.sunshine/weather/before/1472169600000, for deletes */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_BEFORE
+                + "/#", CODE_WEATHER_BEFORE);
+
+        /* content://com.example.android.sunshine/location/ */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
         return matcher;
     }
 
+    /*
+     * Every column is bound by number, ?1 for the location and ?2 for the date through ?9, so
+     * the update below can use each value twice while sharing bindWeather with the insert.
+     */
+    private static String buildInsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT OR IGNORE INTO ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(INSERT_COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?").append(i + 1);
+        }
+        return sql.append(")").toString();
+    }
+
+    /*
+     * Updates the row for ?1's location on ?2's date, but only if at least one column actually
+     * differs, so an unchanged row isn't written at all. IS NOT is used rather than != so that
+     * NULLs compare as values.
+     */
+    private static String buildUpdateChangedSql() {
+        StringBuilder sql = new StringBuilder("UPDATE ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" SET ");
+        for (int i = 2; i < INSERT_COLUMNS.length; i++) {
+            sql.append(i == 2 ? "" : ", ").append(INSERT_COLUMNS[i]).append(" = ?").append(i + 1);
+        }
+        sql.append(" WHERE ").append(INSERT_COLUMNS[0]).append(" = ?1 AND ")
+                .append(INSERT_COLUMNS[1]).append(" = ?2 AND (");
+        for (int i = 2; i < INSERT_COLUMNS.length; i++) {
+            sql.append(i == 2 ? "" : " OR ").append(INSERT_COLUMNS[i])
+                    .append(" IS NOT ?").append(i + 1);
+        }
+        return sql.append(")").toString();
+    }
+
+    /*
+     * Deletes up to PRUNE_BATCH_ROWS days older than ?1. The dates are looked up location by
+     * location, which lets SQLite seek the location and date index for each one rather than
+     * scan the whole table for old dates.
+     */
+    private static String buildPruneBatchSql() {
+        return "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherContract.WeatherEntry._ID + " IN (SELECT "
+                + WeatherContract.WeatherEntry._ID + " FROM "
+                + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " IN (SELECT "
+                + WeatherContract.LocationEntry._ID + " FROM "
+                + WeatherContract.LocationEntry.TABLE_NAME + ") AND "
+                + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?1 LIMIT "
+                + PRUNE_BATCH_ROWS + ")";
+    }
+
     /**
      * In onCreate, we initialize our content provider on startup. This method is called for all
      * registered content providers on the application main thread at application launch time.
@@ -126,10 +285,14 @@ public class WeatherProvider extends ContentProvider {
                  */
                 String[] selectionArguments = new String[]{dateString};
 
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME, projection, WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
-                        selectionArguments, null, null, sortOrder
-                );
+                long date = Long.parseLong(dateString);
+                String sql = SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.WeatherEntry.TABLE_NAME, projection,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        null, null, sortOrder, null);
+                /* Every location's row for the date, so any location's write drops it */
+                cursor = queryCached(sql, selectionArguments, WeatherRowCache.ANY_LOCATION,
+                        date, date);
                 /* Query consists of:- */
                 /* Table we are going to query */
                 /*
@@ -175,6 +338,93 @@ public class WeatherProvider extends ContentProvider {
 
 
             }
+            /*
+             * content://com.example.android.sunshine/weather/location/{id} returns every day
+             * stored for one location.
+             */
+            case CODE_LOCATION_WEATHER: {
+                String[] locationArgs = {uri.getPathSegments().get(2)};
+                cursor = queryDateRange(projection, LOCATION_SELECTION, locationArgs, selection,
+                        SelectionArgs, sortOrder, 0, Long.MIN_VALUE, Long.MAX_VALUE);
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather/location/{id}/{date} returns one
+             * location's weather on one day.
+             */
+            case CODE_LOCATION_WEATHER_WITH_DATE: {
+                List<String> segments = uri.getPathSegments();
+                String[] dayArgs = {segments.get(2), segments.get(3)};
+                long date = Long.parseLong(segments.get(3));
+                cursor = queryDateRange(projection, LOCATION_DATE_SELECTION, dayArgs, selection,
+                        SelectionArgs, sortOrder, 0, date, date);
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather/location/{id}/range/{from}/{to}
+             * returns every day of one location from one normalized date to another, both
+             * included.
+             */
+            case CODE_LOCATION_WEATHER_RANGE: {
+                List<String> segments = uri.getPathSegments();
+                String[] rangeArgs = {segments.get(2), segments.get(4), segments.get(5)};
+                cursor = queryDateRange(projection, RANGE_SELECTION, rangeArgs, selection,
+                        SelectionArgs, sortOrder, WeatherContract.WeatherEntry.MAX_RANGE_DAYS,
+                        Long.parseLong(segments.get(4)), Long.parseLong(segments.get(5)));
+                /* Any date inside the range may change, so listen to the whole location */
+                uri = WeatherContract.WeatherEntry.buildWeatherUriForLocation(
+                        Long.parseLong(segments.get(2)));
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather/location/{id}/upcoming returns one
+             * location's forecast from today onwards.
+             */
+            case CODE_LOCATION_WEATHER_UPCOMING: {
+                String locationId = uri.getPathSegments().get(2);
+                long today = SunshineDateUtils.getNormalizedToday();
+                String[] upcomingArgs = {locationId, Long.toString(today)};
+                cursor = queryDateRange(projection, UPCOMING_SELECTION, upcomingArgs, selection,
+                        SelectionArgs, sortOrder, WeatherContract.WeatherEntry.MAX_UPCOMING_DAYS,
+                        today, Long.MAX_VALUE);
+                uri = WeatherContract.WeatherEntry.buildWeatherUriForLocation(
+                        Long.parseLong(locationId));
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather/location/{id}/stats returns one
+             * location's days summed up by day, week or condition, between the optional from
+             * and to query parameters. The projection is fixed to the StatsEntry columns.
+             */
+            case CODE_LOCATION_WEATHER_STATS: {
+                String locationId = uri.getPathSegments().get(2);
+                long fromDate = parseDateParameter(uri,
+                        WeatherContract.StatsEntry.PARAM_FROM, Long.MIN_VALUE);
+                long toDate = parseDateParameter(uri,
+                        WeatherContract.StatsEntry.PARAM_TO, Long.MAX_VALUE);
+                String sql = buildStatsQuery(
+                        uri.getQueryParameter(WeatherContract.StatsEntry.PARAM_GROUP_BY),
+                        selection, sortOrder);
+                String[] rangeArgs = {locationId, Long.toString(fromDate), Long.toString(toDate)};
+                cursor = queryCached(sql, concatArgs(rangeArgs, SelectionArgs),
+                        Long.parseLong(locationId), fromDate, toDate);
+                uri = WeatherContract.WeatherEntry.buildWeatherUriForLocation(
+                        Long.parseLong(locationId));
+                break;
+            }
+
+            /* content://com.example.android.sunshine/location/ returns the stored locations */
+            case CODE_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationEntry.TABLE_NAME, projection, selection,
+                        SelectionArgs, null, null, sortOrder);
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -183,37 +433,224 @@ public class WeatherProvider extends ContentProvider {
         return cursor;
     }
 
+    /*
+     * Runs a query for one location bounded by a range on the date column, plus whatever
+     * selection the caller added, returning at most limit rows, or every row if limit is 0.
+     * fromDate and toDate are the dates the range covers, for the row cache.
+     */
+    private Cursor queryDateRange(String[] projection, String rangeSelection, String[] rangeArgs,
+                                  String selection, String[] selectionArgs, String sortOrder,
+                                  int limit, long fromDate, long toDate) {
+        String sql = buildDateRangeQuery(projection, rangeSelection, selection, sortOrder, limit);
+        return queryCached(sql, concatArgs(rangeArgs, selectionArgs),
+                Long.parseLong(rangeArgs[0]), fromDate, toDate);
+    }
+
+    /*
+     * Combines a URI's own selection with the caller's, for updates and deletes scoped by URI.
+     */
+    private static String combineSelection(String uriSelection, String selection) {
+        if (selection == null || selection.isEmpty()) {
+            return uriSelection;
+        }
+        return uriSelection + " AND (" + selection + ")";
+    }
+
+    /*
+     * The arguments for a combined selection: the URI's own first, then the caller's.
+     */
+    private static String[] concatArgs(String[] uriArgs, String[] selectionArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return uriArgs;
+        }
+        String[] args = new String[uriArgs.length + selectionArgs.length];
+        System.arraycopy(uriArgs, 0, args, 0, uriArgs.length);
+        System.arraycopy(selectionArgs, 0, args, uriArgs.length, selectionArgs.length);
+        return args;
+    }
+
+    /*
+     * Answers a query from the row cache if it can, and otherwise from SQLite, caching the rows
+     * it read. The rows are tagged with the location and dates they came from, so writes can
+     * drop exactly the entries they affect.
+     */
+    private Cursor queryCached(String sql, String[] args, long locationId, long fromDate,
+                               long toDate) {
+        long start = System.nanoTime();
+        String key = WeatherRowCache.key(sql, args);
+        Cursor cursor = mRowCache.get(key);
+        if (cursor != null) {
+            mRowCache.recordHit(System.nanoTime() - start);
+            return cursor;
+        }
+        long generation = mRowCache.getGeneration();
+        cursor = mOpenHelper.getReadableDatabase().rawQuery(sql, args);
+        Cursor cached = mRowCache.put(key, generation, cursor, locationId, fromDate, toDate);
+        if (cached != null) {
+            cursor.close();
+            cursor = cached;
+        }
+        mRowCache.recordMiss(System.nanoTime() - start);
+        return cursor;
+    }
+
+    /**
+     * Builds the SQL for a query of one location's days. The location and the date range come
+     * first in the WHERE clause, and the rows come back in date order unless the caller asks
+     * otherwise, so SQLite can answer it by seeking the location and date index to the location
+     * and walking it between the two bounds instead of scanning the table. Kept separate so
+     * tests can check the query plan of exactly what the provider runs.
+     *
+     * @param projection     The columns to return, or null for all of them
+     * @param rangeSelection {@link #LOCATION_SELECTION}, {@link #LOCATION_DATE_SELECTION},
+     *                       {@link #RANGE_SELECTION} or {@link #UPCOMING_SELECTION}
+     * @param selection      An extra selection from the caller, or null
+     * @param sortOrder      The caller's sort order, or null for date order
+     * @param limit          The most rows to return, or 0 for no limit
+     * @return The SELECT statement, with the location's and range's arguments first
+     */
+    static String buildDateRangeQuery(String[] projection, String rangeSelection,
+                                      String selection, String sortOrder, int limit) {
+        String where = rangeSelection;
+        if (selection != null && !selection.isEmpty()) {
+            where = rangeSelection + " AND (" + selection + ")";
+        }
+        return SQLiteQueryBuilder.buildQueryString(false, WeatherContract.WeatherEntry.TABLE_NAME,
+                projection, where, null, null,
+                sortOrder != null ? sortOrder : DATE_ORDER,
+                limit > 0 ? Integer.toString(limit) : null);
+    }
+
+    /*
+     * A normalized date passed as a query parameter, or the default if it is missing.
+     */
+    private static long parseDateParameter(Uri uri, String name, long defaultDate) {
+        String value = uri.getQueryParameter(name);
+        if (value == null || value.isEmpty()) {
+            return defaultDate;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + name + " date: " + value, e);
+        }
+    }
+
+    /**
+     * Builds the SQL for one location's aggregates between two dates. SQLite walks the location
+     * and date index between the bounds and sums the days up itself, so only one row per group
+     * ever crosses into Java. Kept separate so tests can check the query plan.
+     *
+     * @param groupBy   {@link WeatherContract.StatsEntry#GROUP_BY_DAY},
+     *                  {@link WeatherContract.StatsEntry#GROUP_BY_WEEK} or
+     *                  {@link WeatherContract.StatsEntry#GROUP_BY_CONDITION}, or null for by day
+     * @param selection An extra selection from the caller on the weather columns, or null
+     * @param sortOrder The caller's sort order on the StatsEntry columns, or null for group
+     *                  order
+     * @return The SELECT statement, taking {@link #RANGE_SELECTION}'s arguments first
+     */
+    static String buildStatsQuery(String groupBy, String selection, String sortOrder) {
+        String group;
+        if (groupBy == null || WeatherContract.StatsEntry.GROUP_BY_DAY.equals(groupBy)) {
+            group = GROUP_DAY;
+        } else if (WeatherContract.StatsEntry.GROUP_BY_WEEK.equals(groupBy)) {
+            group = GROUP_WEEK;
+        } else if (WeatherContract.StatsEntry.GROUP_BY_CONDITION.equals(groupBy)) {
+            group = GROUP_CONDITION;
+        } else {
+            throw new IllegalArgumentException("Unknown stats grouping: " + groupBy);
+        }
+        String[] columns = {
+                group + " AS " + WeatherContract.StatsEntry.COLUMN_GROUP,
+                "COUNT(*) AS " + WeatherContract.StatsEntry.COLUMN_DAYS,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ") AS "
+                        + WeatherContract.StatsEntry.COLUMN_MIN_TEMP,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") AS "
+                        + WeatherContract.StatsEntry.COLUMN_MAX_TEMP,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ") AS "
+                        + WeatherContract.StatsEntry.COLUMN_AVG_HUMIDITY,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ") AS "
+                        + WeatherContract.StatsEntry.COLUMN_AVG_PRESSURE,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ") AS "
+                        + WeatherContract.StatsEntry.COLUMN_AVG_WIND_SPEED,
+                "SUM(" + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " >= 200 AND "
+                        + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " < 600) AS "
+                        + WeatherContract.StatsEntry.COLUMN_RAINY_DAYS
+        };
+        String where = RANGE_SELECTION;
+        if (selection != null && !selection.isEmpty()) {
+            where = RANGE_SELECTION + " AND (" + selection + ")";
+        }
+        return SQLiteQueryBuilder.buildQueryString(false, WeatherContract.WeatherEntry.TABLE_NAME,
+                columns, where, WeatherContract.StatsEntry.COLUMN_GROUP, null,
+                sortOrder != null ? sortOrder : WeatherContract.StatsEntry.COLUMN_GROUP + " ASC",
+                null);
+    }
+
+    /**
+     * Upserts one location's weather rows by date, through
+     * {@link WeatherContract.WeatherEntry#buildWeatherUriForLocation}. A row for a new date is
+     * inserted, a row whose values differ from the stored ones is updated in place, and a row
+     * identical to what is stored isn't written at all. Change notifications go out only for
+     * the days that were written, on their
+     * {@link WeatherContract.WeatherEntry#buildWeatherUriForLocationWithDate} URIs, so a refresh
+     * that changes nothing doesn't make anyone reload.
+     *
+     * @return The number of rows inserted or updated
+     */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
-        final SQLiteDatabase sqldb = mOpenHelper.getWritableDatabase();
-        int rowsInserted = 0;
-        sqldb.beginTransaction();
         switch (uriMatcher.match(uri)) {
-            case CODE_WEATHER: {
+            case CODE_LOCATION_WEATHER: {
+                final SQLiteDatabase sqldb = mOpenHelper.getWritableDatabase();
+                long locationId = Long.parseLong(uri.getPathSegments().get(2));
+                long[] changedDates = new long[values.length];
+                int rowsChanged = 0;
+                /*
+                 * Non-exclusive, so that with write-ahead logging queries from other threads
+                 * keep running against the last committed data while this transaction writes.
+                 */
+                sqldb.beginTransactionNonExclusive();
+                /*
+                 * Compile the statements once for the whole transaction and rebind them for each
+                 * row, instead of building and compiling the SQL again for every single row.
+                 */
+                SQLiteStatement update = sqldb.compileStatement(SQL_UPDATE_CHANGED_WEATHER);
+                SQLiteStatement insert = sqldb.compileStatement(SQL_INSERT_WEATHER);
                 try {
-
                     for (ContentValues value : values) {
-                        long weatherDate;
-                        weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                        Object date = value.get(WeatherContract.WeatherEntry.COLUMN_DATE);
+                        if (!(date instanceof Number)) {
+                            continue;
+                        }
+                        long weatherDate = ((Number) date).longValue();
                         if (weatherDate != SunshineDateUtils.normalizeDate(weatherDate)) {
                             throw new IllegalArgumentException("Date must be normalized to insert");
                         }
-                        long id = sqldb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (id != -1) {
-                            rowsInserted++;
+                        if (upsertWeather(update, insert, locationId, weatherDate, value)) {
+                            changedDates[rowsChanged++] = weatherDate;
                         }
-
-
                     }
                     sqldb.setTransactionSuccessful();
                 } finally {
+                    update.close();
+                    insert.close();
                     sqldb.endTransaction();
                 }
 
-                if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                /* Only once the rows are committed, so no query can cache them as they were */
+                for (int i = 0; i < rowsChanged; i++) {
+                    mRowCache.invalidate(locationId, changedDates[i]);
+                }
+                /*
+                 * One notification for the whole location rather than one per changed day, so
+                 * anyone watching reloads once per sync instead of once per day.
+                 */
+                if (rowsChanged > 0) {
+                    notifyChange(WeatherContract.WeatherEntry.buildWeatherUriForLocation(
+                            locationId));
                 }
-                return rowsInserted;
+                return rowsChanged;
             }
 
             default:
@@ -222,25 +659,427 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /*
+     * Writes one row only if it is new or differs from what is stored. The update runs first,
+     * since after the first sync nearly every date already has a row; if it matched nothing,
+     * the row is either unchanged or missing, and the insert tells those apart. Like
+     * SQLiteDatabase.insert, a row that breaks a constraint is skipped rather than failing the
+     * whole batch.
+     */
+    private static boolean upsertWeather(SQLiteStatement update, SQLiteStatement insert,
+                                         long locationId, long date, ContentValues value) {
+        if (!bindWeather(update, locationId, date, value)) {
+            return false;
+        }
+        try {
+            if (update.executeUpdateDelete() > 0) {
+                return true;
+            }
+            bindWeather(insert, locationId, date, value);
+            return insert.executeInsert() != -1;
+        } catch (SQLException e) {
+            Log.e(TAG, "Couldn't write weather row", e);
+            return false;
+        }
+    }
+
+    /*
+     * Binds one row of weather, in the order of INSERT_COLUMNS. Values are read as the Numbers
+     * they were put in as, so nothing is boxed again on the way to SQLite. Returns false,
+     * leaving the row out, if a column is missing; the NOT NULL constraints would reject it
+     * anyway.
+     */
+    private static boolean bindWeather(SQLiteStatement statement, long locationId, long date,
+                                       ContentValues value) {
+        statement.bindLong(1, locationId);
+        statement.bindLong(2, date);
+        for (int i = 2; i < INSERT_COLUMNS.length; i++) {
+            Object column = value.get(INSERT_COLUMNS[i]);
+            if (column instanceof Double || column instanceof Float) {
+                statement.bindDouble(i + 1, ((Number) column).doubleValue());
+            } else if (column instanceof Number) {
+                statement.bindLong(i + 1, ((Number) column).longValue());
+            } else if (column instanceof String) {
+                /* Column affinity turns numeric strings back into numbers */
+                statement.bindString(i + 1, (String) column);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Nullable
     @Override
     public String getType(@NonNull Uri uri) {
         return null;
     }
 
+    /**
+     * Adds a location through {@link WeatherContract.LocationEntry#CONTENT_URI}. Each location
+     * setting is only ever stored once: inserting one that is already there returns the
+     * existing row, with its coordinates filled in if they are given and have changed.
+     *
+     * @return The location's {@link WeatherContract.LocationEntry#buildLocationUri} URI
+     */
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
-        return null;
+        switch (uriMatcher.match(uri)) {
+            case CODE_LOCATION: {
+                String setting = contentValues == null ? null : contentValues.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (setting == null) {
+                    throw new IllegalArgumentException("A location needs a location setting");
+                }
+                final SQLiteDatabase sqldb = mOpenHelper.getWritableDatabase();
+                long id = sqldb.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME,
+                        null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
+                boolean changed = id != -1;
+                if (!changed) {
+                    id = DatabaseUtils.longForQuery(sqldb, "SELECT "
+                                    + WeatherContract.LocationEntry._ID + " FROM "
+                                    + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+                                    + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                            new String[]{setting});
+                    changed = updateCoordinates(sqldb, id, contentValues);
+                }
+                if (changed) {
+                    notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+                }
+                return WeatherContract.LocationEntry.buildLocationUri(id);
+            }
+
+            case CODE_LOCATION_WEATHER:
+                return insertWeather(Long.parseLong(uri.getPathSegments().get(2)), contentValues);
+
+            case CODE_WEATHER: {
+                Long locationId = contentValues == null ? null : contentValues.getAsLong(
+                        WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
+                if (locationId == null) {
+                    throw new IllegalArgumentException("Weather needs a location to be inserted");
+                }
+                return insertWeather(locationId, contentValues);
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
     }
 
+    /*
+     * Upserts a single day of weather for a location, the same way bulkInsert does for many.
+     * Returns the day's URI, or null if the row couldn't be written.
+     */
+    private Uri insertWeather(long locationId, ContentValues value) {
+        Object date = value == null ? null : value.get(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (!(date instanceof Number)) {
+            throw new IllegalArgumentException("Weather needs a date to be inserted");
+        }
+        long weatherDate = ((Number) date).longValue();
+        if (weatherDate != SunshineDateUtils.normalizeDate(weatherDate)) {
+            throw new IllegalArgumentException("Date must be normalized to insert");
+        }
+        final SQLiteDatabase sqldb = mOpenHelper.getWritableDatabase();
+        SQLiteStatement update = sqldb.compileStatement(SQL_UPDATE_CHANGED_WEATHER);
+        SQLiteStatement insert = sqldb.compileStatement(SQL_INSERT_WEATHER);
+        boolean changed;
+        try {
+            changed = upsertWeather(update, insert, locationId, weatherDate, value);
+        } finally {
+            update.close();
+            insert.close();
+        }
+        Uri dayUri = WeatherContract.WeatherEntry.buildWeatherUriForLocationWithDate(
+                locationId, weatherDate);
+        if (changed) {
+            mRowCache.invalidate(locationId, weatherDate);
+            notifyChange(dayUri);
+            return dayUri;
+        }
+        /* Unchanged rows are still there; only a row that couldn't be written has no URI */
+        return DatabaseUtils.longForQuery(sqldb, "SELECT COUNT(*) FROM "
+                + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " + LOCATION_DATE_SELECTION,
+                new String[]{Long.toString(locationId), Long.toString(weatherDate)}) > 0
+                ? dayUri
+                : null;
+    }
+
+    /*
+     * Stores a known location's coordinates if both are given and either differs from what is
+     * stored, so a location added before its coordinates were known picks them up later.
+     */
+    private static boolean updateCoordinates(SQLiteDatabase sqldb, long id, ContentValues values) {
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (lat == null || lon == null) {
+            return false;
+        }
+        ContentValues coordinates = new ContentValues();
+        coordinates.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        coordinates.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        return sqldb.update(WeatherContract.LocationEntry.TABLE_NAME, coordinates,
+                WeatherContract.LocationEntry._ID + " = ? AND ("
+                        + WeatherContract.LocationEntry.COLUMN_COORD_LAT + " IS NOT ? OR "
+                        + WeatherContract.LocationEntry.COLUMN_COORD_LONG + " IS NOT ?)",
+                new String[]{Long.toString(id), lat.toString(), lon.toString()}) > 0;
+    }
+
+    /**
+     * Deletes weather rows. content://com.example.android.sunshine/weather/ deletes whatever the
+     * selection matches, or every row if there is none, and weather/# deletes a single date for
+     * every location. weather/before/# prunes every day older than the date, in small
+     * transactions, handing the freed pages back to the file system as it goes. location/
+     * deletes the locations the selection matches, and with them all of their weather.
+     *
+     * @return The number of rows deleted
+     */
     @Override
-    public int delete(@NonNull Uri uri, @Nullable String s, @Nullable String[] strings) {
-        return 0;
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        final SQLiteDatabase sqldb = mOpenHelper.getWritableDatabase();
+        int rowsDeleted;
+        switch (uriMatcher.match(uri)) {
+            case CODE_WEATHER:
+                /* A selection of "1" makes SQLite count the deleted rows when deleting them all */
+                rowsDeleted = sqldb.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        selection != null ? selection : "1", selectionArgs);
+                /* The selection could have matched any row */
+                if (rowsDeleted > 0) {
+                    mRowCache.invalidateAll();
+                }
+                break;
+
+            case CODE_WEATHER_WITH_DATE: {
+                long date = Long.parseLong(uri.getLastPathSegment());
+                rowsDeleted = sqldb.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[]{uri.getLastPathSegment()});
+                if (rowsDeleted > 0) {
+                    mRowCache.invalidate(WeatherRowCache.ANY_LOCATION, date);
+                }
+                break;
+            }
+
+            case CODE_WEATHER_BEFORE: {
+                long date = Long.parseLong(uri.getLastPathSegment());
+                rowsDeleted = pruneBefore(sqldb, date);
+                if (rowsDeleted > 0) {
+                    mRowCache.invalidateBefore(date);
+                }
+                break;
+            }
+
+            case CODE_LOCATION:
+                /* The foreign key deletes each location's weather along with it */
+                rowsDeleted = sqldb.delete(WeatherContract.LocationEntry.TABLE_NAME,
+                        selection != null ? selection : "1", selectionArgs);
+                if (rowsDeleted > 0) {
+                    mRowCache.invalidateAll();
+                    notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+                }
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        if (rowsDeleted > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
     }
 
+    /*
+     * Deletes the days older than a date a batch at a time, each batch in its own short
+     * transaction so queries and syncs can get in between. After each batch a few free pages
+     * are returned with an incremental vacuum, which keeps the file from growing without ever
+     * locking the database for a full VACUUM.
+     */
+    private static int pruneBefore(SQLiteDatabase sqldb, long date) {
+        SQLiteStatement deleteBatch = sqldb.compileStatement(SQL_PRUNE_BATCH);
+        int rowsDeleted = 0;
+        try {
+            int batchDeleted;
+            do {
+                sqldb.beginTransactionNonExclusive();
+                try {
+                    deleteBatch.bindLong(1, date);
+                    batchDeleted = deleteBatch.executeUpdateDelete();
+                    sqldb.setTransactionSuccessful();
+                } finally {
+                    sqldb.endTransaction();
+                }
+                rowsDeleted += batchDeleted;
+                /* Inside applyBatch the pages are only freed by a later prune */
+                if (batchDeleted > 0 && !sqldb.inTransaction()) {
+                    WeatherDBHelper.incrementalVacuum(sqldb, PRUNE_VACUUM_PAGES);
+                }
+            } while (batchDeleted == PRUNE_BATCH_ROWS);
+        } finally {
+            deleteBatch.close();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Answers {@link WeatherContract#METHOD_ROW_CACHE_STATS} with the row cache's hit and miss
+     * counts and average latencies.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (WeatherContract.METHOD_ROW_CACHE_STATS.equals(method)) {
+            return mRowCache.getStats();
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Updates rows in place. weather/location/#/# updates one location's day, weather/location/#
+     * the location's days the selection matches, and weather/ whatever weather rows it matches.
+     * location/ updates the locations the selection matches.
+     *
+     * @return The number of rows updated
+     */
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues, @Nullable String s, @Nullable String[] strings) {
-        return 0;
+        final SQLiteDatabase sqldb = mOpenHelper.getWritableDatabase();
+        int rowsUpdated;
+        switch (uriMatcher.match(uri)) {
+            case CODE_LOCATION_WEATHER_WITH_DATE: {
+                List<String> segments = uri.getPathSegments();
+                long locationId = Long.parseLong(segments.get(2));
+                long date = Long.parseLong(segments.get(3));
+                rowsUpdated = sqldb.update(WeatherContract.WeatherEntry.TABLE_NAME, contentValues,
+                        combineSelection(LOCATION_DATE_SELECTION, s),
+                        concatArgs(new String[]{segments.get(2), segments.get(3)}, strings));
+                if (rowsUpdated > 0 && movesRows(contentValues)) {
+                    mRowCache.invalidateAll();
+                } else if (rowsUpdated > 0) {
+                    mRowCache.invalidate(locationId, date);
+                }
+                break;
+            }
+
+            case CODE_LOCATION_WEATHER: {
+                String locationId = uri.getPathSegments().get(2);
+                rowsUpdated = sqldb.update(WeatherContract.WeatherEntry.TABLE_NAME, contentValues,
+                        combineSelection(LOCATION_SELECTION, s),
+                        concatArgs(new String[]{locationId}, strings));
+                if (rowsUpdated > 0 && movesRows(contentValues)) {
+                    mRowCache.invalidateAll();
+                } else if (rowsUpdated > 0) {
+                    mRowCache.invalidateLocation(Long.parseLong(locationId));
+                }
+                break;
+            }
+
+            case CODE_WEATHER:
+                rowsUpdated = sqldb.update(WeatherContract.WeatherEntry.TABLE_NAME, contentValues,
+                        s, strings);
+                if (rowsUpdated > 0) {
+                    mRowCache.invalidateAll();
+                }
+                break;
+
+            case CODE_LOCATION:
+                rowsUpdated = sqldb.update(WeatherContract.LocationEntry.TABLE_NAME, contentValues,
+                        s, strings);
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        if (rowsUpdated > 0) {
+            notifyChange(uri);
+        }
+        return rowsUpdated;
+    }
+
+    /*
+     * Whether an update gives rows a new location or date, so they could turn up in cached
+     * queries of other days too.
+     */
+    private static boolean movesRows(ContentValues values) {
+        return values != null
+                && (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID)
+                || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE));
+    }
+
+    /**
+     * Applies a batch of operations in a single transaction, so they either all happen or none
+     * do, and the commit is paid for once rather than once per operation. Change notifications
+     * are held back until the batch has committed, and then go out once for the weather and
+     * once for the locations, whichever the batch touched, instead of once per operation.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase sqldb = mOpenHelper.getWritableDatabase();
+        PendingChanges changes = new PendingChanges();
+        ContentProviderResult[] results = null;
+        mPendingChanges.set(changes);
+        sqldb.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            sqldb.setTransactionSuccessful();
+        } finally {
+            sqldb.endTransaction();
+            mPendingChanges.remove();
+            if (results == null) {
+                /*
+                 * Rolled back. Queries run inside the batch could have cached rows that were
+                 * never committed, so none of what is cached can be trusted.
+                 */
+                mRowCache.invalidateAll();
+            }
+        }
+
+        /*
+         * Queries run while the batch was open could have cached rows it went on to change, so
+         * the cache is cleared again now that it has committed.
+         */
+        if (changes.weather) {
+            mRowCache.invalidateAll();
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+        if (changes.location) {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.LocationEntry.CONTENT_URI, null);
+        }
+        return results;
+    }
+
+    /*
+     * Tells observers about a change, or, inside applyBatch, notes it for when the batch ends.
+     */
+    private void notifyChange(Uri uri) {
+        PendingChanges changes = mPendingChanges.get();
+        if (changes != null) {
+            changes.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /*
+     * Which tables a batch has changed. Notifying each table's root URI reaches everyone
+     * watching any of its rows.
+     */
+    private static final class PendingChanges {
+        boolean weather;
+        boolean location;
+
+        void add(Uri uri) {
+            if (WeatherContract.PATH_LOCATION.equals(uri.getPathSegments().get(0))) {
+                location = true;
+            } else {
+                weather = true;
+            }
+        }
     }
 }
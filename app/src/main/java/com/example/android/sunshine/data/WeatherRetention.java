@@ -0,0 +1,75 @@
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.io.File;
+
+/**
+ * Keeps the weather table from growing without limit by pruning days older than a retention
+ * horizon. The work is done by deleting {@link WeatherContract.WeatherEntry#buildWeatherUriBefore}
+ * through {@link WeatherProvider}, which removes the rows in small transactions and returns the
+ * freed pages to the file system as it goes, so the database file shrinks without a blocking
+ * VACUUM.
+ */
+public final class WeatherRetention {
+
+    private static final String TAG = WeatherRetention.class.getSimpleName();
+
+    /* Past days kept by default, enough to look back over the last season */
+    public static final int DEFAULT_HORIZON_DAYS = 90;
+
+    /**
+     * What a prune did.
+     */
+    public static final class Result {
+        public final int rowsDeleted;
+        public final long durationMillis;
+        /* Size of the database file and its write-ahead log after pruning */
+        public final long databaseSizeBytes;
+
+        Result(int rowsDeleted, long durationMillis, long databaseSizeBytes) {
+            this.rowsDeleted = rowsDeleted;
+            this.durationMillis = durationMillis;
+            this.databaseSizeBytes = databaseSizeBytes;
+        }
+    }
+
+    private WeatherRetention() {
+    }
+
+    /**
+     * Deletes every day more than the given number of days before today.
+     *
+     * @param context     Used to reach the content provider and the database file
+     * @param horizonDays How many past days to keep
+     * @return How many rows went, how long it took and how big the database is now
+     */
+    public static Result prune(Context context, int horizonDays) {
+        long today = SunshineDateUtils.getNormalizedToday();
+        long cutoff = today - horizonDays * SunshineDateUtils.DAY_IN_MILLIS;
+
+        long start = SystemClock.elapsedRealtime();
+        int rowsDeleted = context.getContentResolver().delete(
+                WeatherContract.WeatherEntry.buildWeatherUriBefore(cutoff), null, null);
+        long durationMillis = SystemClock.elapsedRealtime() - start;
+
+        Result result = new Result(rowsDeleted, durationMillis, getDatabaseSize(context));
+        Log.d(TAG, "Pruned " + result.rowsDeleted + " rows in " + result.durationMillis
+                + "ms, database is now " + result.databaseSizeBytes + " bytes");
+        return result;
+    }
+
+    /**
+     * @param context Used to find the database file
+     * @return The size of the weather database on disk, including its write-ahead log
+     */
+    public static long getDatabaseSize(Context context) {
+        File database = context.getDatabasePath(WeatherDBHelper.DATABASE_NAME);
+        File wal = new File(database.getPath() + "-wal");
+        return database.length() + wal.length();
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the decoded rows of recent {@link WeatherProvider} queries in memory, so asking for the
+ * same days again, as happens when moving between the list and a day's details, is answered
+ * without going back to SQLite. Entries are keyed by the exact SQL and arguments of the query,
+ * which covers the URI, projection, selection and sort order.
+ * <p>
+ * Each entry remembers which location and which dates it was read from. A write then drops only
+ * the entries that could have included the rows it changed, and everything else stays cached.
+ * <p>
+ * The cache is bounded by the total number of rows it holds, evicting the least recently used
+ * entries first. How often it hits, and how long hits and misses take, can be read with
+ * {@link WeatherContract#METHOD_ROW_CACHE_STATS}.
+ */
+public final class WeatherRowCache {
+
+    /* Keys of the Bundle returned for METHOD_ROW_CACHE_STATS */
+    public static final String KEY_HITS = "hits";
+    public static final String KEY_MISSES = "misses";
+    /* Hits as a fraction of all queries that could have been cached */
+    public static final String KEY_HIT_RATIO = "hit_ratio";
+    /* Average time to answer a query from the cache and from SQLite, in nanoseconds */
+    public static final String KEY_AVERAGE_HIT_NANOS = "average_hit_nanos";
+    public static final String KEY_AVERAGE_MISS_NANOS = "average_miss_nanos";
+
+    /* Marks an entry read across every location, such as weather/# */
+    static final long ANY_LOCATION = -1;
+
+    /* A few locations' worth of forecasts and recently viewed days */
+    static final int DEFAULT_MAX_ROWS = 2048;
+
+    private static final class Entry {
+        final String[] columns;
+        final Object[][] rows;
+        final long locationId;
+        final long fromDate;
+        final long toDate;
+
+        Entry(String[] columns, Object[][] rows, long locationId, long fromDate, long toDate) {
+            this.columns = columns;
+            this.rows = rows;
+            this.locationId = locationId;
+            this.fromDate = fromDate;
+            this.toDate = toDate;
+        }
+
+        boolean overlaps(long locationId, long fromDate, long toDate) {
+            return (this.locationId == ANY_LOCATION || locationId == ANY_LOCATION
+                    || this.locationId == locationId)
+                    && fromDate <= this.toDate && toDate >= this.fromDate;
+        }
+    }
+
+    private final int mMaxRows;
+    /* In access order, so the eldest entry is the least recently used */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private int mRowCount;
+    /* Bumped by every invalidation, so rows read before a write can't be cached after it */
+    private long mGeneration;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mHitNanos = new AtomicLong();
+    private final AtomicLong mMissNanos = new AtomicLong();
+
+    /**
+     * @param maxRows The most rows held across all entries. A single query returning more than
+     *                a quarter of this is never cached.
+     */
+    WeatherRowCache(int maxRows) {
+        mMaxRows = maxRows;
+    }
+
+    /**
+     * @param sql  The query's SQL
+     * @param args The query's arguments
+     * @return The key the query's rows are cached under
+     */
+    static String key(String sql, String[] args) {
+        StringBuilder key = new StringBuilder(sql);
+        for (String arg : args) {
+            key.append('\0').append(arg);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param key The query's key
+     * @return A new cursor over the cached rows, or null if they aren't cached
+     */
+    Cursor get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+        }
+        return entry == null ? null : newCursor(entry);
+    }
+
+    /**
+     * @return The generation to pass to {@link #put}, read before the query runs
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Decodes a query's rows and caches them, unless something was invalidated since the query
+     * started, in which case the rows may already be out of date.
+     *
+     * @param key        The query's key
+     * @param generation What {@link #getGeneration()} returned before the query ran
+     * @param cursor     The query's result, read to the end but not closed
+     * @param locationId The location the rows were read from, or {@link #ANY_LOCATION}
+     * @param fromDate   The earliest date the query could return
+     * @param toDate     The latest date the query could return
+     * @return A cursor over the same rows, or null if there were too many to cache, in which
+     * case the original cursor should be used
+     */
+    Cursor put(String key, long generation, Cursor cursor, long locationId, long fromDate,
+               long toDate) {
+        int count = cursor.getCount();
+        if (count > mMaxRows / 4) {
+            return null;
+        }
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[count][];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rows[i] = readRow(cursor, columns.length);
+        }
+        Entry entry = new Entry(columns, rows, locationId, fromDate, toDate);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                Entry previous = mEntries.put(key, entry);
+                mRowCount += count - (previous == null ? 0 : previous.rows.length);
+                trimToSize();
+            }
+        }
+        return newCursor(entry);
+    }
+
+    /* Every caller gets its own cursor, since a cursor has a position of its own */
+    private static Cursor newCursor(Entry entry) {
+        MatrixCursor cursor = new MatrixCursor(entry.columns, entry.rows.length);
+        for (Object[] row : entry.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static Object[] readRow(Cursor cursor, int columnCount) {
+        Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = null;
+            }
+        }
+        return row;
+    }
+
+    private void trimToSize() {
+        Iterator<Entry> eldest = mEntries.values().iterator();
+        while (mRowCount > mMaxRows && eldest.hasNext()) {
+            mRowCount -= eldest.next().rows.length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops every entry that could include a location's row for a date.
+     *
+     * @param locationId The location, or {@link #ANY_LOCATION} for the date at every location
+     * @param date       The normalized date that changed
+     */
+    void invalidate(long locationId, long date) {
+        invalidate(locationId, date, date);
+    }
+
+    /**
+     * Drops every entry that could include a location's row for any date between two dates,
+     * both included.
+     *
+     * @param locationId The location, or {@link #ANY_LOCATION} for every location
+     * @param fromDate   The earliest normalized date that changed
+     * @param toDate     The latest normalized date that changed
+     */
+    synchronized void invalidate(long locationId, long fromDate, long toDate) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.overlaps(locationId, fromDate, toDate)) {
+                mRowCount -= entry.rows.length;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every entry that could include any of a location's days.
+     *
+     * @param locationId The location whose rows changed
+     */
+    void invalidateLocation(long locationId) {
+        invalidate(locationId, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Drops every entry that could include a date before the given one, at any location.
+     *
+     * @param date The normalized date before which rows were deleted
+     */
+    synchronized void invalidateBefore(long date) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.fromDate < date) {
+                mRowCount -= entry.rows.length;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops everything, for writes whose rows can't be told apart, such as a delete with an
+     * arbitrary selection.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+        mRowCount = 0;
+    }
+
+    void recordHit(long nanos) {
+        mHits.incrementAndGet();
+        mHitNanos.addAndGet(nanos);
+    }
+
+    void recordMiss(long nanos) {
+        mMisses.incrementAndGet();
+        mMissNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return The hit and miss counts and average latencies, under the KEY_ constants
+     */
+    Bundle getStats() {
+        long hits = mHits.get();
+        long misses = mMisses.get();
+        Bundle stats = new Bundle();
+        stats.putLong(KEY_HITS, hits);
+        stats.putLong(KEY_MISSES, misses);
+        stats.putDouble(KEY_HIT_RATIO, hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        stats.putLong(KEY_AVERAGE_HIT_NANOS, hits == 0 ? 0 : mHitNanos.get() / hits);
+        stats.putLong(KEY_AVERAGE_MISS_NANOS, misses == 0 ? 0 : mMissNanos.get() / misses);
+        return stats;
+    }
+}
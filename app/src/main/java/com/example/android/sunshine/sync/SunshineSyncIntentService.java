@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Runs the scheduled sync on devices without JobScheduler, where it is started by the alarm set
+ * in {@link SunshineSyncUtils}. The alarm can't carry constraints, so they are checked here.
+ */
+public class SunshineSyncIntentService extends IntentService {
+
+    private static final String TAG = SunshineSyncIntentService.class.getSimpleName();
+
+    public SunshineSyncIntentService() {
+        super("SunshineSyncIntentService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!SunshineSyncUtils.areSyncConstraintsMet(this)) {
+            Log.d(TAG, "Not charging on an unmetered network, skipping scheduled sync");
+            return;
+        }
+        try {
+            SunshineSyncTask.syncScheduled(this);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Scheduled sync interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Runs the scheduled sync when JobScheduler decides the constraints set in
+ * {@link SunshineSyncUtils} are met. The work happens on its own thread, since jobs are started
+ * on the main thread.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SunshineSyncJobService extends JobService {
+
+    private static final String TAG = SunshineSyncJobService.class.getSimpleName();
+
+    private Thread mSyncThread;
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        mSyncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SunshineSyncTask.syncScheduled(SunshineSyncJobService.this);
+                } catch (InterruptedException e) {
+                    /* onStopJob already asked for the job to be rescheduled */
+                    Log.d(TAG, "Scheduled sync stopped early");
+                    return;
+                }
+                jobFinished(jobParameters, false);
+            }
+        }, "SunshineSyncJob");
+        mSyncThread.start();
+        /* The job carries on until the thread calls jobFinished */
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        /* The constraints stopped holding; give up now and try again later */
+        if (mSyncThread != null) {
+            mSyncThread.interrupt();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastRepository;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherBatch;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherRetention;
+import com.example.android.sunshine.utilities.CoordinateGrid;
+import com.example.android.sunshine.utilities.ForecastBatchFetcher;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Fetches forecasts from the weather server and writes them into the weather table. Everything
+ * that refreshes the database, for one location or many, goes through here.
+ */
+public class SunshineSyncTask {
+
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    /* Locations fetched at the same time when refreshing all of them */
+    private static final int MAX_PARALLEL_FETCHES = 4;
+
+    /* How long a refresh of every tracked location may take in total */
+    private static final long TRACKED_LOCATIONS_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static ForecastBatchFetcher sBatchFetcher;
+
+    /**
+     * Fetches the forecast for the preferred location and writes it into the weather table. The
+     * location's coordinates are used when they are known.
+     * <p>
+     * This doesn't wait for a sync of all tracked locations to finish, so that when one is
+     * already fetching the preferred location, this joins that fetch instead of repeating it.
+     *
+     * @param context Used to read preferences and to reach the content provider
+     * @return The number of rows written
+     * @throws IOException If the forecast couldn't be fetched
+     */
+    public static int syncWeather(Context context) throws IOException {
+        String location = SunshinePreferences.getPreferredWeatherLocation(context);
+        URL weatherRequestUrl = NetworkUtils.getUrl(context);
+
+        WeatherBatch weather = NetworkUtils.getForecast(weatherRequestUrl);
+        if (weather == null) {
+            throw new IOException("Server reported an error for " + location);
+        }
+        return insertWeather(context, location, weather);
+    }
+
+    /**
+     * Fetches the forecasts for every tracked location at once, writing each into the weather
+     * table as soon as it arrives.
+     *
+     * @param context Used to read preferences and to reach the content provider
+     * @return The number of rows written across all locations
+     * @throws InterruptedException If the thread is interrupted while waiting on the fetches
+     */
+    synchronized public static int syncTrackedLocations(final Context context)
+            throws InterruptedException {
+        String[] locations = SunshinePreferences.getTrackedLocations(context);
+        final int[] rowsWritten = new int[1];
+
+        /* The preferred location is asked for the way syncWeather asks, so the two can share */
+        URL[] urls = NetworkUtils.buildUrls(locations);
+        String preferred = SunshinePreferences.getPreferredWeatherLocation(context);
+        for (int i = 0; i < locations.length; i++) {
+            if (locations[i].equals(preferred)) {
+                urls[i] = NetworkUtils.getUrl(context);
+            }
+        }
+
+        ForecastBatchFetcher.Result result = getBatchFetcher().fetch(locations, urls,
+                TRACKED_LOCATIONS_TIMEOUT_MILLIS, new ForecastBatchFetcher.Listener() {
+                    @Override
+                    public void onLocationFetched(String location, WeatherBatch weather) {
+                        rowsWritten[0] += insertWeather(context, location, weather);
+                    }
+
+                    @Override
+                    public void onLocationFailed(String location, IOException error) {
+                        Log.w(TAG, "Couldn't refresh " + location, error);
+                    }
+                });
+
+        Log.d(TAG, "Refreshed " + result.fetched + " of " + locations.length + " locations in "
+                + result.elapsedMillis + "ms (" + result.failed + " failed, "
+                + result.timedOut + " timed out)");
+        return rowsWritten[0];
+    }
+
+    /**
+     * The work done by a scheduled sync. All tracked locations are refreshed in the same run, so
+     * the device wakes up once for all of them. Nothing is fetched while the forecast is still
+     * fresh. How long the run took and how many rows it wrote are kept in
+     * {@link SunshinePreferences}. Days past the retention horizon, and locations no longer
+     * tracked, are pruned afterwards.
+     *
+     * @param context Used to read preferences and to reach the content provider
+     * @return The number of rows written, or 0 if the run was skipped
+     * @throws InterruptedException If the thread is interrupted while waiting on the fetches
+     */
+    synchronized public static int syncScheduled(Context context) throws InterruptedException {
+        if (!ForecastRepository.getInstance(context).isStale()) {
+            Log.d(TAG, "Forecast is still fresh, skipping scheduled sync");
+            return 0;
+        }
+        long start = SystemClock.elapsedRealtime();
+        int rowsWritten = syncTrackedLocations(context);
+        long durationMillis = SystemClock.elapsedRealtime() - start;
+        SunshinePreferences.saveSyncRun(context, durationMillis, rowsWritten);
+        Log.d(TAG, "Scheduled sync wrote " + rowsWritten + " rows in " + durationMillis + "ms");
+
+        /* The device is charging and idle anyway, so this is a good time to drop old days */
+        WeatherRetention.prune(context, WeatherRetention.DEFAULT_HORIZON_DAYS);
+        pruneUntrackedLocations(context, SunshinePreferences.getTrackedLocations(context));
+        return rowsWritten;
+    }
+
+    /*
+     * Deletes the locations that aren't tracked any more, such as an earlier preferred location.
+     * Their weather goes with them.
+     */
+    private static int pruneUntrackedLocations(Context context, String[] tracked) {
+        StringBuilder selection = new StringBuilder(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING).append(" NOT IN (");
+        for (int i = 0; i < tracked.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+        int pruned = context.getContentResolver().delete(
+                WeatherContract.LocationEntry.CONTENT_URI, selection.toString(), tracked);
+        if (pruned > 0) {
+            Log.d(TAG, "Pruned " + pruned + " untracked locations");
+        }
+        return pruned;
+    }
+
+    /*
+     * Writes a location's forecast under its row in the location table. Only a refresh of the
+     * preferred location counts as the last sync, since that is the forecast the UI shows.
+     */
+    private static int insertWeather(Context context, String location, WeatherBatch weather) {
+        boolean preferred = location.equals(
+                SunshinePreferences.getPreferredWeatherLocation(context));
+        long locationId = addLocation(context, location, preferred);
+        int rowsWritten = 0;
+        if (weather.size() > 0) {
+            rowsWritten = context.getContentResolver().bulkInsert(
+                    WeatherContract.WeatherEntry.buildWeatherUriForLocation(locationId),
+                    weather.toContentValues());
+        }
+        if (preferred) {
+            SunshinePreferences.saveLastSyncTime(context, System.currentTimeMillis());
+        }
+        return rowsWritten;
+    }
+
+    /*
+     * Returns the location's _ID, adding it to the location table if it is new. The preferred
+     * location's coordinates are stored too when they are known, snapped to the same grid the
+     * requests use.
+     */
+    private static long addLocation(Context context, String location, boolean preferred) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, location);
+        if (preferred && SunshinePreferences.isLocationLatLonAvailable(context)) {
+            double[] coordinates = SunshinePreferences.getLocationCoordinates(context);
+            CoordinateGrid grid = NetworkUtils.getCoordinateGrid();
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                    Double.parseDouble(grid.snapLatitude(coordinates[0])));
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                    Double.parseDouble(grid.snapLongitude(coordinates[1])));
+        }
+        Uri locationUri = context.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, values);
+        return ContentUris.parseId(locationUri);
+    }
+
+    private static synchronized ForecastBatchFetcher getBatchFetcher() {
+        if (sBatchFetcher == null) {
+            sBatchFetcher = new ForecastBatchFetcher(MAX_PARALLEL_FETCHES);
+        }
+        return sBatchFetcher;
+    }
+}
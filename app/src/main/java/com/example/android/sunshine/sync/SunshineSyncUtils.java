@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+/**
+ * Schedules the periodic background sync. On Lollipop and later the sync is a
+ * {@link SunshineSyncJobService} job, which the system only runs on an unmetered network while
+ * the device is charging, batched with other apps' work. Older devices have no JobScheduler, so
+ * an inexact repeating alarm starts {@link SunshineSyncIntentService} instead, and the service
+ * checks the same constraints itself before doing anything.
+ */
+public class SunshineSyncUtils {
+
+    private static final String TAG = SunshineSyncUtils.class.getSimpleName();
+
+    /* How often the forecast is refreshed in the background */
+    static final long SYNC_INTERVAL_MILLIS = 3 * AlarmManager.INTERVAL_HOUR;
+
+    private static final int SYNC_JOB_ID = 1;
+
+    private static boolean sInitialized;
+
+    /**
+     * Makes sure the periodic sync is scheduled. Safe to call every time the app starts; it only
+     * does anything the first time in each process, and leaves a sync that is already scheduled
+     * alone, so launching the app often doesn't keep pushing the next sync back.
+     *
+     * @param context Used to reach the system services
+     */
+    synchronized public static void initialize(Context context) {
+        if (sInitialized) {
+            return;
+        }
+        sInitialized = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(context);
+        } else {
+            scheduleAlarm(context);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        /* Scheduling again would replace the job and restart its interval */
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == SYNC_JOB_ID
+                    && pending.getIntervalMillis() == SYNC_INTERVAL_MILLIS) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(SYNC_JOB_ID,
+                new ComponentName(context, SunshineSyncJobService.class))
+                .setPeriodic(SYNC_INTERVAL_MILLIS)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(TAG, "Couldn't schedule the sync job");
+        }
+    }
+
+    private static void scheduleAlarm(Context context) {
+        Intent serviceIntent = new Intent(context, SunshineSyncIntentService.class);
+        /*
+         * The alarm's PendingIntent outlives the process, so if it still exists the alarm is still
+         * set. Setting it again would restart its interval.
+         */
+        if (PendingIntent.getService(context, 0, serviceIntent, PendingIntent.FLAG_NO_CREATE)
+                != null) {
+            return;
+        }
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent syncIntent = PendingIntent.getService(context, 0, serviceIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        /* Inexact, so the system can fold the wake-up in with other apps' alarms */
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + SYNC_INTERVAL_MILLIS,
+                SYNC_INTERVAL_MILLIS, syncIntent);
+    }
+
+    /**
+     * Checks the constraints a JobScheduler job would have been given, for devices where the
+     * sync is started by an alarm instead.
+     *
+     * @param context Used to reach the system services
+     * @return true if the device is charging and on an unmetered network
+     */
+    static boolean areSyncConstraintsMet(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = connectivityManager.getActiveNetworkInfo();
+        if (network == null || !network.isConnected()
+                || ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager)) {
+            return false;
+        }
+        /* The battery status is a sticky broadcast, so this returns it without registering */
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
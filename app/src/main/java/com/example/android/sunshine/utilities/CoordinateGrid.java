@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Snaps coordinates to the centre lines of a grid before they are used to ask for a forecast.
+ * Every position inside the same cell produces exactly the same request, so it also produces
+ * the same cache key in {@link ForecastResponseCache} and {@link ForecastFetchCoordinator}.
+ * A user moving a few metres, or two users standing near each other, then share one cached
+ * forecast instead of each downloading their own.
+ * <p>
+ * The grid also counts how many of the forecasts requested through it were answered from the
+ * response cache rather than downloaded again. Comparing that hit rate between grids of
+ * different resolutions shows how much a coarser grid saves.
+ */
+public final class CoordinateGrid {
+
+    /* About a kilometre at the equator, far finer than a forecast actually varies */
+    public static final double DEFAULT_RESOLUTION = 0.01;
+
+    private final double mResolution;
+    /* The resolution as an exact decimal, so snapped values print without rounding noise */
+    private final BigDecimal mStep;
+    private final long mCellsPerTurn;
+    private final long mMaxLatitudeCell;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mHitCount = new AtomicInteger();
+
+    /**
+     * @param resolutionDegrees The size of a cell in degrees, for example 0.01. Anything that
+     *                          divides evenly into 360 keeps the cells the same size all the
+     *                          way round.
+     */
+    public CoordinateGrid(double resolutionDegrees) {
+        if (!(resolutionDegrees > 0) || resolutionDegrees > 180) {
+            throw new IllegalArgumentException("Bad grid resolution: " + resolutionDegrees);
+        }
+        mResolution = resolutionDegrees;
+        mStep = BigDecimal.valueOf(resolutionDegrees);
+        mCellsPerTurn = Math.round(360 / resolutionDegrees);
+        mMaxLatitudeCell = (long) Math.floor(90 / resolutionDegrees);
+    }
+
+    public double getResolution() {
+        return mResolution;
+    }
+
+    /**
+     * @param latitude The latitude to snap, in degrees
+     * @return The latitude of the centre line of its cell, formatted for a request
+     */
+    public String snapLatitude(double latitude) {
+        long cell = Math.round(latitude / mResolution);
+        cell = Math.max(-mMaxLatitudeCell, Math.min(mMaxLatitudeCell, cell));
+        return format(cell);
+    }
+
+    /**
+     * @param longitude The longitude to snap, in degrees
+     * @return The longitude of the centre line of its cell, formatted for a request. Longitudes
+     * either side of the antimeridian end up in the same cell.
+     */
+    public String snapLongitude(double longitude) {
+        long cell = Math.round(longitude / mResolution) % mCellsPerTurn;
+        /* Bring the cell into [-180, 180) so 180 and -180 don't make two different keys */
+        long halfTurn = mCellsPerTurn / 2;
+        if (cell >= halfTurn) {
+            cell -= mCellsPerTurn;
+        } else if (cell < -halfTurn) {
+            cell += mCellsPerTurn;
+        }
+        return format(cell);
+    }
+
+    private String format(long cell) {
+        return BigDecimal.valueOf(cell).multiply(mStep).toPlainString();
+    }
+
+    /**
+     * Notes that a forecast for a snapped position was answered, for the hit rate.
+     *
+     * @param servedFromCache Whether the forecast came out of the response cache rather than
+     *                        being downloaded again
+     */
+    void recordRequest(boolean servedFromCache) {
+        mRequestCount.incrementAndGet();
+        if (servedFromCache) {
+            mHitCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The number of forecasts requested for snapped positions and answered, from the
+     * network or the cache
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return The number of those requests that were answered from the response cache, because
+     * the server said the cached copy was still current or couldn't be reached
+     */
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return The fraction of requests that were hits, or 0 if nothing has been requested yet
+     */
+    public double getHitRate() {
+        int requests = mRequestCount.get();
+        return requests == 0 ? 0 : (double) mHitCount.get() / requests;
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides how hard to try when fetching a forecast. Failed attempts are retried after an
+ * exponentially growing, jittered delay. Failures are also tracked per host by a circuit
+ * breaker: once a host has failed too many times in a row, the breaker opens and requests to it
+ * are answered from the last cached response without touching the network. After a cool-down,
+ * a single request is let through to see whether the host has recovered.
+ * <p>
+ * The clock and the way the policy waits between attempts can both be replaced, so that tests
+ * can drive the timing deterministically.
+ */
+public final class FetchPolicy {
+
+    private static final String TAG = FetchPolicy.class.getSimpleName();
+
+    /* Not one of the constants in HttpURLConnection */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * One try at fetching a URL, and what to fall back on when the host's breaker is open.
+     *
+     * @param <T> The type of result fetched
+     */
+    public interface Attempt<T> {
+
+        /**
+         * Makes a single request to the network.
+         */
+        T fetch() throws IOException;
+
+        /**
+         * Produces a result without the network, for when the breaker is open.
+         *
+         * @return The fallback result, or null if there is nothing to fall back on
+         */
+        T fallback() throws IOException;
+    }
+
+    /**
+     * Where the policy gets the time from, in milliseconds. Only differences between readings
+     * matter.
+     */
+    public interface Clock {
+        long now();
+    }
+
+    /**
+     * How the policy waits between attempts.
+     */
+    public interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    /**
+     * The states of a host's circuit breaker.
+     */
+    public enum BreakerState {
+        /* Requests go through as usual */
+        CLOSED,
+        /* The host is failing, so requests are answered from the cache instead */
+        OPEN,
+        /* The cool-down has passed and one request is being let through to test the host */
+        HALF_OPEN
+    }
+
+    private final int mMaxAttempts;
+    private final long mInitialBackoffMillis;
+    private final long mMaxBackoffMillis;
+    private final double mBackoffMultiplier;
+    private final double mJitter;
+    private final int mFailureThreshold;
+    private final long mOpenDurationMillis;
+    private final Clock mClock;
+    private final Sleeper mSleeper;
+    private final Random mRandom;
+
+    private final HashMap<String, Breaker> mBreakers = new HashMap<>();
+
+    private final AtomicInteger mRetryCount = new AtomicInteger();
+    private final AtomicInteger mBreakerTransitionCount = new AtomicInteger();
+    private final AtomicInteger mShortCircuitCount = new AtomicInteger();
+
+    private FetchPolicy(Builder builder) {
+        mMaxAttempts = builder.mMaxAttempts;
+        mInitialBackoffMillis = builder.mInitialBackoffMillis;
+        mMaxBackoffMillis = builder.mMaxBackoffMillis;
+        mBackoffMultiplier = builder.mBackoffMultiplier;
+        mJitter = builder.mJitter;
+        mFailureThreshold = builder.mFailureThreshold;
+        mOpenDurationMillis = builder.mOpenDurationMillis;
+        mClock = builder.mClock;
+        mSleeper = builder.mSleeper;
+        mRandom = builder.mRandom;
+    }
+
+    /**
+     * Fetches a URL according to this policy.
+     *
+     * @param url     The URL being fetched. Its host picks the circuit breaker.
+     * @param attempt Makes each request, and supplies the fallback
+     * @return The fetched result, or the fallback if the host's breaker is open
+     * @throws IOException The last failure, if every attempt failed and there was nothing to
+     *                     fall back on
+     */
+    public <T> T execute(URL url, Attempt<T> attempt) throws IOException {
+        Breaker breaker = breakerFor(url.getHost());
+        IOException lastFailure = null;
+
+        for (int attemptNumber = 0; attemptNumber < mMaxAttempts; attemptNumber++) {
+            if (!breaker.allowRequest()) {
+                mShortCircuitCount.incrementAndGet();
+                T fallback = attempt.fallback();
+                if (fallback != null) {
+                    return fallback;
+                }
+                if (lastFailure == null) {
+                    lastFailure = new IOException("Circuit open for " + url.getHost());
+                }
+                throw lastFailure;
+            }
+
+            if (attemptNumber > 0) {
+                mRetryCount.incrementAndGet();
+            }
+            try {
+                T result = attempt.fetch();
+                breaker.onSuccess();
+                return result;
+            } catch (RuntimeException e) {
+                /* Don't leave a half open breaker waiting forever on a trial that blew up */
+                breaker.onFailure();
+                throw e;
+            } catch (IOException e) {
+                lastFailure = e;
+                if (isInterruption(e) || e instanceof NetworkUtils.ResponseFormatException) {
+                    /*
+                     * Either we gave up before the host answered, or it answered with something
+                     * we couldn't read. Neither says whether the host is healthy.
+                     */
+                    breaker.onAbandoned();
+                    throw e;
+                }
+                if (!isRetryable(e)) {
+                    /* The host answered, it just didn't like the request */
+                    breaker.onSuccess();
+                    throw e;
+                }
+                breaker.onFailure();
+                Log.w(TAG, "Attempt " + (attemptNumber + 1) + " of " + mMaxAttempts
+                        + " failed for " + url, e);
+            }
+
+            if (attemptNumber + 1 < mMaxAttempts) {
+                try {
+                    mSleeper.sleep(backoffMillis(attemptNumber));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted backing off from " + url);
+                }
+            }
+        }
+
+        /* Every attempt failed. Still better to show old data than none at all. */
+        T fallback = attempt.fallback();
+        if (fallback != null) {
+            return fallback;
+        }
+        throw lastFailure;
+    }
+
+    /**
+     * Returns how long to wait before the retry following the given attempt: the initial
+     * backoff, multiplied for each attempt already made and capped at the maximum, with up to
+     * the jitter fraction of it randomly taken off so that many clients don't retry in step.
+     *
+     * @param attemptNumber The attempt that just failed, starting from 0
+     * @return The delay in milliseconds
+     */
+    long backoffMillis(int attemptNumber) {
+        double backoff = mInitialBackoffMillis * Math.pow(mBackoffMultiplier, attemptNumber);
+        backoff = Math.min(backoff, mMaxBackoffMillis);
+        double jitter;
+        synchronized (mRandom) {
+            jitter = mJitter * mRandom.nextDouble();
+        }
+        return (long) (backoff * (1 - jitter));
+    }
+
+    /*
+     * Client errors won't be fixed by asking again. Server errors, throttling and failures to
+     * reach the server at all might be.
+     */
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof NetworkUtils.HttpStatusException) {
+            int code = ((NetworkUtils.HttpStatusException) e).getStatusCode();
+            return code >= HttpURLConnection.HTTP_INTERNAL_ERROR || code == HTTP_TOO_MANY_REQUESTS;
+        }
+        return true;
+    }
+
+    /* A cancelled or interrupted fetch, as opposed to one that timed out waiting for the host */
+    static boolean isInterruption(IOException e) {
+        return e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+    }
+
+    private synchronized Breaker breakerFor(String host) {
+        Breaker breaker = mBreakers.get(host);
+        if (breaker == null) {
+            breaker = new Breaker(host);
+            mBreakers.put(host, breaker);
+        }
+        return breaker;
+    }
+
+    /**
+     * @param host The host of a forecast URL
+     * @return The current state of that host's circuit breaker
+     */
+    public BreakerState getBreakerState(String host) {
+        return breakerFor(host).getState();
+    }
+
+    /**
+     * @return The number of attempts made after a first attempt failed
+     */
+    public int getRetryCount() {
+        return mRetryCount.get();
+    }
+
+    /**
+     * @return The number of times any breaker has changed state
+     */
+    public int getBreakerTransitionCount() {
+        return mBreakerTransitionCount.get();
+    }
+
+    /**
+     * @return The number of requests answered by the fallback because a breaker was open
+     */
+    public int getShortCircuitCount() {
+        return mShortCircuitCount.get();
+    }
+
+    /*
+     * The circuit breaker for a single host.
+     */
+    private final class Breaker {
+        private final String mHost;
+        private BreakerState mState = BreakerState.CLOSED;
+        private int mConsecutiveFailures;
+        private long mOpenedAt;
+
+        Breaker(String host) {
+            mHost = host;
+        }
+
+        synchronized BreakerState getState() {
+            return mState;
+        }
+
+        /*
+         * Whether a request may go to the network right now. Once the cool-down has passed, an
+         * open breaker lets exactly one request through.
+         */
+        synchronized boolean allowRequest() {
+            switch (mState) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (mClock.now() - mOpenedAt >= mOpenDurationMillis) {
+                        moveTo(BreakerState.HALF_OPEN);
+                        return true;
+                    }
+                    return false;
+                default:
+                    /* A trial request is already on its way */
+                    return false;
+            }
+        }
+
+        synchronized void onSuccess() {
+            mConsecutiveFailures = 0;
+            if (mState != BreakerState.CLOSED) {
+                moveTo(BreakerState.CLOSED);
+            }
+        }
+
+        /*
+         * The request ended without telling us anything about the host. A trial request that
+         * ends this way hands its turn back, so the next request becomes the trial instead.
+         */
+        synchronized void onAbandoned() {
+            if (mState == BreakerState.HALF_OPEN) {
+                moveTo(BreakerState.OPEN);
+            }
+        }
+
+        synchronized void onFailure() {
+            mConsecutiveFailures++;
+            if (mState == BreakerState.HALF_OPEN
+                    || (mState == BreakerState.CLOSED && mConsecutiveFailures >= mFailureThreshold)) {
+                mOpenedAt = mClock.now();
+                moveTo(BreakerState.OPEN);
+            }
+        }
+
+        private void moveTo(BreakerState state) {
+            Log.d(TAG, "Circuit for " + mHost + " " + mState + " -> " + state);
+            mState = state;
+            mBreakerTransitionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Builds a FetchPolicy. The defaults suit the app: three attempts starting one second apart,
+     * and a breaker that opens for a minute after three failures in a row.
+     */
+    public static final class Builder {
+        private int mMaxAttempts = 3;
+        private long mInitialBackoffMillis = SunshineDateUtils.SECOND_IN_MILLIS;
+        private long mMaxBackoffMillis = 8 * SunshineDateUtils.SECOND_IN_MILLIS;
+        private double mBackoffMultiplier = 2;
+        private double mJitter = 0.5;
+        private int mFailureThreshold = 3;
+        private long mOpenDurationMillis = SunshineDateUtils.MINUTE_IN_MILLIS;
+        private Clock mClock = new Clock() {
+            @Override
+            public long now() {
+                return SystemClock.elapsedRealtime();
+            }
+        };
+        private Sleeper mSleeper = new Sleeper() {
+            @Override
+            public void sleep(long millis) throws InterruptedException {
+                Thread.sleep(millis);
+            }
+        };
+        private Random mRandom = new Random();
+
+        /**
+         * @param maxAttempts The most requests made for one fetch, including the first
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("At least one attempt is needed");
+            }
+            mMaxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param initialMillis The delay before the first retry
+         * @param maxMillis     The longest delay between any two attempts
+         * @param multiplier    How much the delay grows after each retry
+         */
+        public Builder setBackoff(long initialMillis, long maxMillis, double multiplier) {
+            mInitialBackoffMillis = initialMillis;
+            mMaxBackoffMillis = maxMillis;
+            mBackoffMultiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * @param jitter The largest fraction of each delay that may be randomly taken off, from
+         *               0 for none to 1 for anything down to no delay at all
+         */
+        public Builder setJitter(double jitter) {
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("Jitter must be between 0 and 1");
+            }
+            mJitter = jitter;
+            return this;
+        }
+
+        /**
+         * @param failureThreshold Failures in a row that open a host's breaker
+         * @param openMillis       How long a breaker stays open before letting a request through
+         */
+        public Builder setCircuitBreaker(int failureThreshold, long openMillis) {
+            mFailureThreshold = failureThreshold;
+            mOpenDurationMillis = openMillis;
+            return this;
+        }
+
+        public Builder setClock(Clock clock) {
+            mClock = clock;
+            return this;
+        }
+
+        public Builder setSleeper(Sleeper sleeper) {
+            mSleeper = sleeper;
+            return this;
+        }
+
+        public Builder setRandom(Random random) {
+            mRandom = random;
+            return this;
+        }
+
+        public FetchPolicy build() {
+            return new FetchPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.os.SystemClock;
+
+import com.example.android.sunshine.data.WeatherBatch;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the forecasts for many locations at once. At most a fixed number of requests are in
+ * flight at any time, and each location is handed back as soon as its forecast has been
+ * fetched and parsed, rather than after the whole batch. Locations still outstanding when the
+ * overall deadline passes are cancelled.
+ * <p>
+ * Each location goes through the same {@link NetworkUtils#getForecast} path as a single fetch,
+ * so caching, retries and streaming all still apply, and a location already being fetched by a
+ * single refresh is joined rather than fetched twice.
+ */
+public final class ForecastBatchFetcher {
+
+    /* Worker threads that have nothing to do for this long are let go */
+    private static final long IDLE_THREAD_SECONDS = 30;
+
+    /**
+     * Receives the outcome of each location, on the thread that called
+     * {@link #fetch(String[], long, Listener)}, in the order the locations complete.
+     */
+    public interface Listener {
+
+        /**
+         * @param location The location, as it was passed in
+         * @param weather  The parsed forecast for the location
+         */
+        void onLocationFetched(String location, WeatherBatch weather);
+
+        /**
+         * @param location The location, as it was passed in
+         * @param error    Why it couldn't be fetched
+         */
+        void onLocationFailed(String location, IOException error);
+    }
+
+    /**
+     * What happened to a whole batch of locations.
+     */
+    public static final class Result {
+        public final int fetched;
+        public final int failed;
+        /* Locations given up on because the deadline passed first */
+        public final int timedOut;
+        public final long elapsedMillis;
+
+        Result(int fetched, int failed, int timedOut, long elapsedMillis) {
+            this.fetched = fetched;
+            this.failed = failed;
+            this.timedOut = timedOut;
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
+
+    private final int mParallelism;
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * @param parallelism The most locations fetched at the same time
+     */
+    public ForecastBatchFetcher(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        mParallelism = parallelism;
+        mExecutor = new ThreadPoolExecutor(parallelism, parallelism,
+                IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable,
+                                "ForecastBatchFetcher #" + mCount.incrementAndGet());
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * Fetches the forecast for every location, blocking until they have all completed or the
+     * deadline has passed.
+     *
+     * @param locations     The locations to fetch, as accepted by {@link NetworkUtils#buildUrl(String)}
+     * @param timeoutMillis How long the whole batch may take
+     * @param listener      Told about each location as it completes
+     * @return A summary of the batch
+     * @throws InterruptedException If the calling thread is interrupted while waiting. Any
+     *                              fetches still running are cancelled first.
+     */
+    public Result fetch(String[] locations, long timeoutMillis, Listener listener)
+            throws InterruptedException {
+        return fetch(locations, NetworkUtils.buildUrls(locations), timeoutMillis, listener);
+    }
+
+    /**
+     * Like {@link #fetch(String[], long, Listener)}, but with the URL for each location already
+     * built.
+     *
+     * @param locations     The locations to fetch, only used to report results
+     * @param urls          The URL to fetch for each location, in the same order
+     * @param timeoutMillis How long the whole batch may take
+     * @param listener      Told about each location as it completes
+     * @return A summary of the batch
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public Result fetch(String[] locations, URL[] urls, long timeoutMillis, Listener listener)
+            throws InterruptedException {
+        if (locations.length != urls.length) {
+            throw new IllegalArgumentException("Need exactly one URL per location");
+        }
+        long start = SystemClock.elapsedRealtime();
+        long deadline = start + timeoutMillis;
+
+        ExecutorCompletionService<WeatherBatch> completionService =
+                new ExecutorCompletionService<>(mExecutor);
+        HashMap<Future<WeatherBatch>, String> pending = new HashMap<>();
+        for (int i = 0; i < locations.length; i++) {
+            pending.put(completionService.submit(new FetchLocation(urls[i])), locations[i]);
+        }
+
+        int fetched = 0;
+        int failed = 0;
+        try {
+            while (!pending.isEmpty()) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                Future<WeatherBatch> done = remaining > 0
+                        ? completionService.poll(remaining, TimeUnit.MILLISECONDS)
+                        : null;
+                if (done == null) {
+                    /* Out of time */
+                    break;
+                }
+                String location = pending.remove(done);
+                try {
+                    WeatherBatch weather = done.get();
+                    if (weather != null) {
+                        listener.onLocationFetched(location, weather);
+                        fetched++;
+                    } else {
+                        listener.onLocationFailed(location,
+                                new IOException("Server reported an error for " + location));
+                        failed++;
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    listener.onLocationFailed(location, cause instanceof IOException
+                            ? (IOException) cause
+                            : new IOException("Fetching " + location + " failed", cause));
+                    failed++;
+                }
+            }
+        } finally {
+            for (Future<WeatherBatch> future : pending.keySet()) {
+                future.cancel(true);
+            }
+        }
+
+        return new Result(fetched, failed, pending.size(),
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Stops the worker threads. Fetches already running are interrupted.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /*
+     * Fetches and parses one location on a worker thread.
+     */
+    private static final class FetchLocation implements Callable<WeatherBatch> {
+        private final URL mUrl;
+
+        FetchLocation(URL url) {
+            mUrl = url;
+        }
+
+        @Override
+        public WeatherBatch call() throws IOException {
+            return NetworkUtils.getForecast(mUrl);
+        }
+    }
+}
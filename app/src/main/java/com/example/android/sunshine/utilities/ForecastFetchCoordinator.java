@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes sure only one fetch per URL is in flight at a time. If a fetch for a URL is already
+ * running when another caller asks for the same URL, the second caller waits for the running
+ * fetch and gets its result rather than making a second round trip.
+ * <p>
+ * Results are only shared while the fetch is in flight. Once it completes, the next caller
+ * starts a fresh fetch.
+ *
+ * @param <T> The type of result a fetch produces
+ */
+public final class ForecastFetchCoordinator<T> {
+
+    /* Fetches currently in flight, keyed by URL */
+    private final HashMap<String, FutureTask<T>> mInFlight = new HashMap<>();
+
+    private final AtomicInteger mFetchCount = new AtomicInteger();
+    private final AtomicInteger mCoalescedCount = new AtomicInteger();
+
+    /**
+     * Runs the fetch for a URL, or joins the one already running for it.
+     * <p>
+     * If the caller running a shared fetch is interrupted, for example because its job was
+     * stopped or its batch ran out of time, the callers that joined it haven't been, so they
+     * start the fetch again rather than failing with someone else's interruption.
+     *
+     * @param url   The URL being fetched. Callers with equal URLs share a result.
+     * @param fetch Does the actual work. Only run if no fetch for the URL is in flight.
+     * @return The result of whichever fetch this caller ended up sharing
+     * @throws IOException If the fetch failed. Every caller sharing it sees the same failure,
+     *                     apart from an interruption of another caller's thread.
+     */
+    public T fetch(URL url, Callable<T> fetch) throws IOException {
+        String key = url.toString();
+        while (true) {
+            FutureTask<T> task;
+            boolean owner = false;
+            synchronized (mInFlight) {
+                task = mInFlight.get(key);
+                if (task == null) {
+                    task = new FutureTask<>(fetch);
+                    mInFlight.put(key, task);
+                    owner = true;
+                }
+            }
+
+            if (owner) {
+                mFetchCount.incrementAndGet();
+                try {
+                    /* The first caller does the work on its own thread */
+                    task.run();
+                } finally {
+                    removeInFlight(key, task);
+                }
+            } else {
+                mCoalescedCount.incrementAndGet();
+            }
+
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + key);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (!owner && isInterruption(cause) && !Thread.currentThread().isInterrupted()) {
+                    /* The owner may not have taken it out of flight yet */
+                    removeInFlight(key, task);
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof InterruptedException) {
+                    throw new InterruptedIOException("Interrupted fetching " + key);
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException("Fetching " + key + " failed", cause);
+            }
+        }
+    }
+
+    private void removeInFlight(String key, FutureTask<T> task) {
+        synchronized (mInFlight) {
+            if (mInFlight.get(key) == task) {
+                mInFlight.remove(key);
+            }
+        }
+    }
+
+    /* Whether a fetch failed because the thread running it was interrupted */
+    private static boolean isInterruption(Throwable cause) {
+        return cause instanceof InterruptedException
+                || (cause instanceof IOException && FetchPolicy.isInterruption((IOException) cause));
+    }
+
+    /**
+     * @return The number of fetches that actually went to the network
+     */
+    public int getFetchCount() {
+        return mFetchCount.get();
+    }
+
+    /**
+     * @return The number of callers that shared a fetch already in flight instead of making
+     * their own
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An on-disk cache of forecast responses, keyed by the URL built in {@link NetworkUtils}. Each
+ * entry keeps the body of the last full response along with its ETag and Last-Modified
+ * validators, so the next request for the same URL can ask the server whether anything has
+ * changed. When the server answers 304 Not Modified, the cached body is read instead of
+ * downloading the forecast again.
+ * <p>
+ * The cache is bounded by the total size of the bodies it holds. When a new response pushes it
+ * over that size, the least recently used entries are removed until it fits again.
+ */
+public final class ForecastResponseCache {
+
+    private static final String TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "forecast-responses";
+
+    /* A forecast response is a few kilobytes, so this holds a great many locations */
+    private static final long DEFAULT_MAX_SIZE = 1024 * 1024;
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static ForecastResponseCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    /* Key to body size, in access order so the eldest entry is the least recently used */
+    private final LinkedHashMap<String, Long> mEntrySizes =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private boolean mLoaded;
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private final AtomicInteger mEvictionCount = new AtomicInteger();
+
+    /**
+     * Returns the application wide cache, kept in the app's cache directory.
+     *
+     * @param context Used to find the cache directory
+     * @return The shared ForecastResponseCache
+     */
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(),
+                    CACHE_DIRECTORY);
+            sInstance = new ForecastResponseCache(directory, DEFAULT_MAX_SIZE);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param directory Where the entries are kept. Created on first use if it doesn't exist.
+     * @param maxSize   The most bytes of response bodies to keep before evicting
+     */
+    public ForecastResponseCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * The validators and body of a cached response.
+     */
+    public static final class Entry {
+        public final String url;
+        /* Either of these may be null, but never both */
+        public final String eTag;
+        public final String lastModified;
+
+        private final File mBody;
+
+        private Entry(String url, String eTag, String lastModified, File body) {
+            this.url = url;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            mBody = body;
+        }
+    }
+
+    /**
+     * Looks up the cached response for a URL and marks it as recently used.
+     *
+     * @param url The URL the response was fetched from
+     * @return The cached entry, or null if there is none
+     */
+    public Entry get(URL url) {
+        String key = keyFor(url);
+        synchronized (this) {
+            loadIfNeeded();
+            if (mEntrySizes.get(key) == null) {
+                return null;
+            }
+        }
+
+        File meta = new File(mDirectory, key + META_SUFFIX);
+        File body = new File(mDirectory, key + BODY_SUFFIX);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+            String cachedUrl = in.readUTF();
+            String eTag = in.readUTF();
+            String lastModified = in.readUTF();
+            if (!cachedUrl.equals(url.toString())) {
+                return null;
+            }
+            /* Keep the order across restarts, as the index is rebuilt from modification times */
+            body.setLastModified(System.currentTimeMillis());
+            return new Entry(cachedUrl, eTag.isEmpty() ? null : eTag,
+                    lastModified.isEmpty() ? null : lastModified, body);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache entry for " + url, e);
+            remove(key);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Opens the body of a cached response for reading.
+     *
+     * @param entry An entry returned by {@link #get(URL)}
+     * @return The cached body. The caller must close it.
+     * @throws IOException If the entry has since been evicted or can't be read
+     */
+    public InputStream openBody(Entry entry) throws IOException {
+        return new BufferedInputStream(new FileInputStream(entry.mBody));
+    }
+
+    /**
+     * Starts writing a new response for a URL. Nothing replaces the current entry until
+     * {@link Editor#commit()} is called.
+     *
+     * @param url          The URL the response is being fetched from
+     * @param eTag         The ETag header of the response, or null
+     * @param lastModified The Last-Modified header of the response, or null
+     * @return An editor to copy the body through
+     * @throws IOException If the cache directory can't be written to
+     */
+    public Editor edit(URL url, String eTag, String lastModified) throws IOException {
+        synchronized (this) {
+            loadIfNeeded();
+        }
+        return new Editor(keyFor(url), url.toString(), eTag, lastModified);
+    }
+
+    /**
+     * Copies a response body into the cache while it is read by someone else.
+     */
+    public final class Editor {
+        private final String mKey;
+        private final File mTempBody;
+        private final File mTempMeta;
+        private final OutputStream mBodyOut;
+        private long mLength;
+        private boolean mDone;
+
+        private Editor(String key, String url, String eTag, String lastModified)
+                throws IOException {
+            mKey = key;
+            /* Unique names, so two downloads of the same URL can't write over each other */
+            mTempBody = File.createTempFile(key, BODY_SUFFIX + TEMP_SUFFIX, mDirectory);
+            mTempMeta = File.createTempFile(key, META_SUFFIX + TEMP_SUFFIX, mDirectory);
+
+            DataOutputStream metaOut = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(mTempMeta)));
+            try {
+                metaOut.writeUTF(url);
+                metaOut.writeUTF(eTag == null ? "" : eTag);
+                metaOut.writeUTF(lastModified == null ? "" : lastModified);
+            } finally {
+                metaOut.close();
+            }
+            mBodyOut = new BufferedOutputStream(new FileOutputStream(mTempBody));
+        }
+
+        /**
+         * Wraps a response stream so that every byte read from it is also written to the cache.
+         *
+         * @param in The body of the response
+         * @return A stream to read the body from instead
+         */
+        public InputStream wrap(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        mBodyOut.write(b);
+                        mLength++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0) {
+                        mBodyOut.write(buffer, offset, read);
+                        mLength += read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long byteCount) throws IOException {
+                    /* Skipped bytes still have to end up in the cache */
+                    byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+                    int read = read(buffer, 0, buffer.length);
+                    return read == -1 ? 0 : read;
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Makes the copied body the cached response for its URL. The wrapped stream must have
+         * been read to the end, or the cache would hold a truncated body.
+         *
+         * @throws IOException If the body couldn't be written
+         */
+        public void commit() throws IOException {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mBodyOut.close();
+            synchronized (ForecastResponseCache.this) {
+                File body = new File(mDirectory, mKey + BODY_SUFFIX);
+                File meta = new File(mDirectory, mKey + META_SUFFIX);
+                if (!mTempBody.renameTo(body)) {
+                    /* Nothing has changed yet, so the current entry, if any, still holds */
+                    mTempBody.delete();
+                    mTempMeta.delete();
+                    throw new IOException("Couldn't commit cache entry " + mKey);
+                }
+                if (!mTempMeta.renameTo(meta)) {
+                    /*
+                     * The new body is next to the old validators now, and a 304 for those would
+                     * serve the wrong body. Drop the entry altogether.
+                     */
+                    mTempMeta.delete();
+                    remove(mKey);
+                    throw new IOException("Couldn't commit cache entry " + mKey);
+                }
+                Long previousSize = mEntrySizes.put(mKey, mLength);
+                if (previousSize != null) {
+                    mSize -= previousSize;
+                }
+                mSize += mLength;
+                trimToSize();
+            }
+        }
+
+        /**
+         * Throws away whatever was copied. The current entry for the URL, if any, is kept.
+         */
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            closeQuietly(mBodyOut);
+            mTempBody.delete();
+            mTempMeta.delete();
+        }
+    }
+
+    /* Counts a request that was answered from the cache after the server said 304 */
+    void recordHit() {
+        mHitCount.incrementAndGet();
+    }
+
+    /* Counts a request that had to download the whole response */
+    void recordMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    /**
+     * @return The number of requests served from the cache after a 304 Not Modified
+     */
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return The number of requests that downloaded a full response
+     */
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return The number of entries removed to keep the cache under its maximum size
+     */
+    public int getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * @return The total size in bytes of the cached response bodies
+     */
+    public synchronized long size() {
+        loadIfNeeded();
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Removes every entry from the cache. The counters are left as they are.
+     */
+    public synchronized void evictAll() {
+        loadIfNeeded();
+        for (String key : mEntrySizes.keySet().toArray(new String[mEntrySizes.size()])) {
+            remove(key);
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long size = mEntrySizes.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        new File(mDirectory, key + BODY_SUFFIX).delete();
+        new File(mDirectory, key + META_SUFFIX).delete();
+    }
+
+    /*
+     * Evicts the least recently used entries until the cache fits within its maximum size.
+     * Must be called while holding the lock.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> eldest = mEntrySizes.entrySet().iterator();
+        while (mSize > mMaxSize && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            mSize -= entry.getValue();
+            new File(mDirectory, entry.getKey() + BODY_SUFFIX).delete();
+            new File(mDirectory, entry.getKey() + META_SUFFIX).delete();
+            mEvictionCount.incrementAndGet();
+        }
+    }
+
+    /*
+     * Rebuilds the index from the files on disk, oldest first, the first time the cache is used.
+     * This happens on whichever thread first fetches a forecast rather than on the main thread.
+     * Must be called while holding the lock.
+     */
+    private void loadIfNeeded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "Couldn't create cache directory " + mDirectory);
+            return;
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long aModified = a.lastModified();
+                long bModified = b.lastModified();
+                return aModified < bModified ? -1 : (aModified == bModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                /* Left behind by a download that never finished */
+                file.delete();
+            } else if (name.endsWith(BODY_SUFFIX)) {
+                String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+                if (new File(mDirectory, key + META_SUFFIX).exists()) {
+                    mEntrySizes.put(key, file.length());
+                    mSize += file.length();
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    private static String keyFor(URL url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.toString().getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
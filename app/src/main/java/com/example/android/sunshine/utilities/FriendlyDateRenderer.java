@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.R;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Renders the friendly dates of {@link SunshineDateUtils#getFriendlyDateString} for a list of
+ * days at a time, in a fixed time zone and locale.
+ * <p>
+ * "Today" is worked out once, when {@link #beginBatch} is called, rather than once per date.
+ * The time zone's offset is cached together with the span of time it holds for, so dates
+ * between two daylight saving transitions cost no time zone lookups at all. Rendered labels are
+ * kept for the days around today, so rendering the same day again is an array read.
+ * <p>
+ * A renderer keeps its own formatters and isn't thread safe; each thread should use its own,
+ * such as the one {@link SunshineDateUtils#getDateRenderer} returns.
+ */
+public final class FriendlyDateRenderer {
+
+    /*
+     * How far each side of a date its offset is checked. A zone is assumed not to change its
+     * offset twice within this span, which no zone in the tz database does.
+     */
+    private static final long OFFSET_PROBE_MILLIS = 7 * SunshineDateUtils.DAY_IN_MILLIS;
+
+    /* The days around today whose labels are kept, from a week ago to a month ahead */
+    private static final int FIRST_KEPT_DAY = -7;
+    private static final int LAST_KEPT_DAY = 31;
+
+    private static final int READABLE_DATE_FLAGS = DateUtils.FORMAT_SHOW_DATE
+            | DateUtils.FORMAT_NO_YEAR
+            | DateUtils.FORMAT_SHOW_WEEKDAY;
+    private static final int SHORT_DATE_FLAGS = DateUtils.FORMAT_SHOW_DATE
+            | DateUtils.FORMAT_NO_YEAR
+            | DateUtils.FORMAT_ABBREV_ALL
+            | DateUtils.FORMAT_SHOW_WEEKDAY;
+
+    private final Context mContext;
+    private final TimeZone mTimeZone;
+    private final Locale mLocale;
+    private final String mTodayName;
+    private final String mTomorrowName;
+
+    private final SimpleDateFormat mDayNameFormat;
+    private final Date mDate = new Date();
+    private final StringBuilder mFormatBuffer = new StringBuilder(50);
+    private final Formatter mFormatter;
+
+    /* The offset from UTC, and the span of instants, from inclusive to exclusive, it holds for */
+    private int mOffset;
+    private long mOffsetFrom = Long.MAX_VALUE;
+    private long mOffsetTo = Long.MIN_VALUE;
+
+    /* The local day number of today, set by beginBatch */
+    private long mTodayNumber = Long.MIN_VALUE;
+    /* Labels for the days around today, without and with the full date */
+    private final String[] mLabels = new String[LAST_KEPT_DAY - FIRST_KEPT_DAY + 1];
+    private final String[] mFullLabels = new String[LAST_KEPT_DAY - FIRST_KEPT_DAY + 1];
+
+    /**
+     * @param context  Context to use for resource localization
+     * @param timeZone The time zone the dates are shown in
+     * @param locale   The locale day names and dates are written in
+     */
+    public FriendlyDateRenderer(Context context, TimeZone timeZone, Locale locale) {
+        mContext = context;
+        mTimeZone = (TimeZone) timeZone.clone();
+        mLocale = locale;
+        mTodayName = context.getString(R.string.today);
+        mTomorrowName = context.getString(R.string.tomorrow);
+        mDayNameFormat = new SimpleDateFormat("EEEE", locale);
+        mDayNameFormat.setTimeZone(mTimeZone);
+        mFormatter = new Formatter(mFormatBuffer, locale);
+    }
+
+    /**
+     * @param timeZone A time zone
+     * @param locale   A locale
+     * @return true if this renderer renders dates in that time zone and locale
+     */
+    public boolean isFor(TimeZone timeZone, Locale locale) {
+        return mTimeZone.getID().equals(timeZone.getID()) && mLocale.equals(locale);
+    }
+
+    /**
+     * Starts rendering a batch of dates relative to the given time. Labels kept from an earlier
+     * batch are dropped if today has changed since.
+     *
+     * @param nowMillis The current time in milliseconds (UTC)
+     */
+    public void beginBatch(long nowMillis) {
+        long todayNumber = getDayNumber(nowMillis);
+        if (todayNumber != mTodayNumber) {
+            mTodayNumber = todayNumber;
+            Arrays.fill(mLabels, null);
+            Arrays.fill(mFullLabels, null);
+        }
+    }
+
+    /**
+     * @return The local day number of today as of the last {@link #beginBatch}, for telling
+     * whether labels rendered earlier are still current
+     */
+    public long getTodayNumber() {
+        return mTodayNumber;
+    }
+
+    /**
+     * Renders a date the way {@link SunshineDateUtils#getFriendlyDateString} does, relative to
+     * the time passed to {@link #beginBatch}.
+     *
+     * @param dateInMillis The date in milliseconds (UTC)
+     * @param showFullDate Used to show a fuller-version of the date, which always contains either
+     *                     the day of the week, today, or tomorrow, in addition to the date.
+     * @return A user-friendly representation of the date such as "Today, June 8", "Tomorrow",
+     * or "Friday"
+     */
+    public String render(long dateInMillis, boolean showFullDate) {
+        if (mTodayNumber == Long.MIN_VALUE) {
+            throw new IllegalStateException("beginBatch must be called before render");
+        }
+        long localDate = dateInMillis - getOffset(dateInMillis);
+        long dayNumber = getDayNumber(localDate);
+
+        long keptDay = dayNumber - mTodayNumber;
+        if (keptDay < FIRST_KEPT_DAY || keptDay > LAST_KEPT_DAY) {
+            return renderDay(localDate, dayNumber, showFullDate);
+        }
+        String[] labels = showFullDate ? mFullLabels : mLabels;
+        int index = (int) keptDay - FIRST_KEPT_DAY;
+        String label = labels[index];
+        if (label == null) {
+            label = renderDay(localDate, dayNumber, showFullDate);
+            labels[index] = label;
+        }
+        return label;
+    }
+
+    private String renderDay(long localDate, long dayNumber, boolean showFullDate) {
+        if (dayNumber == mTodayNumber || showFullDate) {
+            /*
+             * If the date we're building the String for is today's date, the format
+             * is "Today, June 24"
+             */
+            String dayName = getDayName(localDate, dayNumber);
+            String readableDate = formatDate(localDate, READABLE_DATE_FLAGS);
+            if (dayNumber - mTodayNumber < 2) {
+                /*
+                 * There is no localized format that returns "Today" or "Tomorrow" in the API
+                 * levels we support, so the weekday in the readable date is swapped for it.
+                 */
+                return readableDate.replace(formatDayName(localDate), dayName);
+            } else {
+                return readableDate;
+            }
+        } else if (dayNumber < mTodayNumber + 7) {
+            /* If the input date is less than a week in the future, just return the day name. */
+            return getDayName(localDate, dayNumber);
+        } else {
+            return formatDate(localDate, SHORT_DATE_FLAGS);
+        }
+    }
+
+    /* "Today", "Tomorrow", or the day of the week (e.g "Wednesday") */
+    private String getDayName(long localDate, long dayNumber) {
+        if (dayNumber == mTodayNumber) {
+            return mTodayName;
+        } else if (dayNumber == mTodayNumber + 1) {
+            return mTomorrowName;
+        } else {
+            return formatDayName(localDate);
+        }
+    }
+
+    private String formatDayName(long localDate) {
+        mDate.setTime(localDate);
+        return mDayNameFormat.format(mDate);
+    }
+
+    private String formatDate(long localDate, int flags) {
+        mFormatBuffer.setLength(0);
+        return DateUtils.formatDateRange(mContext, mFormatter, localDate, localDate, flags,
+                mTimeZone.getID()).toString();
+    }
+
+    /*
+     * The number of local days since the epoch, counted the way SunshineDateUtils.getDayNumber
+     * counts them.
+     */
+    private long getDayNumber(long date) {
+        return (date + getOffset(date)) / SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * Returns the time zone's offset from UTC at an instant, as TimeZone.getOffset does. While
+     * the instant falls in the span the last offset holds for, no lookup is made. Otherwise the
+     * offset is looked up and the span around the instant is found again, bisecting to the exact
+     * millisecond of a transition when there is one nearby.
+     *
+     * @param time An instant in milliseconds (UTC)
+     * @return The offset to add to UTC to get local time, in milliseconds
+     */
+    int getOffset(long time) {
+        if (time >= mOffsetFrom && time < mOffsetTo) {
+            return mOffset;
+        }
+        int offset = mTimeZone.getOffset(time);
+        long from = time - OFFSET_PROBE_MILLIS;
+        if (mTimeZone.getOffset(from) != offset) {
+            from = findTransition(from, time);
+        }
+        long to = time + OFFSET_PROBE_MILLIS;
+        if (mTimeZone.getOffset(to) != offset) {
+            to = findTransition(time, to);
+        }
+        mOffset = offset;
+        mOffsetFrom = from;
+        mOffsetTo = to;
+        return offset;
+    }
+
+    /*
+     * The first instant after before whose offset differs from before's, given that the offset
+     * changes exactly once by after.
+     */
+    private long findTransition(long before, long after) {
+        int beforeOffset = mTimeZone.getOffset(before);
+        while (after - before > 1) {
+            long middle = before + (after - before) / 2;
+            if (mTimeZone.getOffset(middle) == beforeOffset) {
+                before = middle;
+            } else {
+                after = middle;
+            }
+        }
+        return after;
+    }
+}
@@ -15,15 +15,25 @@
  */
 package com.example.android.sunshine.utilities;
 
+import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherBatch;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -61,6 +71,46 @@ public final class NetworkUtils {
     final static String UNITS_PARAM = "units";
     final static String DAYS_PARAM = "cnt";
 
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+
+    /* Idle connections kept alive for reuse, enough for every location fetched at once */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    private static volatile ForecastResponseCache sResponseCache;
+
+    private static volatile CoordinateGrid sCoordinateGrid =
+            new CoordinateGrid(CoordinateGrid.DEFAULT_RESOLUTION);
+
+    private static volatile FetchPolicy sFetchPolicy = new FetchPolicy.Builder().build();
+
+    /* Joins a forecast fetch already in flight for the same URL, whoever started it */
+    private static final ForecastFetchCoordinator<WeatherBatch> sForecastFetches =
+            new ForecastFetchCoordinator<>();
+
+    private static final AtomicLong sWireByteCount = new AtomicLong();
+    private static final AtomicLong sDecodedByteCount = new AtomicLong();
+
+    static {
+        /*
+         * HttpURLConnection keeps finished keep-alive connections in a pool shared by the whole
+         * process, so later refreshes, for this location or any other, skip the TCP and TLS
+         * handshakes. Make sure that is switched on and that the pool is big enough.
+         */
+        if (System.getProperty("http.keepAlive") == null) {
+            System.setProperty("http.keepAlive", "true");
+        }
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+        }
+    }
+
     /**
      * Builds the URL used to talk to the weather server using a location. This location is based
      * on the query capabilities of the weather provider that we are using.
@@ -87,42 +137,469 @@ public final class NetworkUtils {
         return  url;
     }
 
+    /**
+     * Builds the URLs for a batch of locations, one per location, in the same order. Hand them
+     * to a {@link ForecastBatchFetcher} to fetch them all at once.
+     *
+     * @param locationQueries The locations that will be queried for.
+     * @return The URLs to use to query the weather server.
+     */
+    public static URL[] buildUrls(String[] locationQueries) {
+        URL[] urls = new URL[locationQueries.length];
+        for (int i = 0; i < locationQueries.length; i++) {
+            urls[i] = buildUrl(locationQueries[i]);
+        }
+        return urls;
+    }
+
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
-     * location.
+     * location. The coordinates are snapped to the current {@link CoordinateGrid} first, so
+     * nearby positions build the same URL and share a cached forecast.
      *
      * @param lat The latitude of the location
      * @param lon The longitude of the location
      * @return The Url to use to query the weather server.
      */
     public static URL buildUrl(Double lat, Double lon) {
-        /** This will be implemented in a future lesson **/
-        return null;
+        CoordinateGrid grid = sCoordinateGrid;
+        String snappedLat = grid.snapLatitude(lat);
+        String snappedLon = grid.snapLongitude(lon);
+
+        Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                .appendQueryParameter(LAT_PARAM, snappedLat)
+                .appendQueryParameter(LON_PARAM, snappedLon)
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .build();
+
+        URL url = null;
+        try {
+            url = new URL(builtUri.toString());
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+        Log.d(TAG, "Built URL: " + url);
+        return url;
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * Builds the URL for the user's preferred location, using its coordinates when they are
+     * known and the location string otherwise.
      *
-     * @param url The URL to fetch the HTTP response from.
-     * @return The contents of the HTTP response.
+     * @param context Used to read the location preferences
+     * @return The URL to use to query the weather server.
+     */
+    public static URL getUrl(Context context) {
+        if (SunshinePreferences.isLocationLatLonAvailable(context)) {
+            double[] coordinates = SunshinePreferences.getLocationCoordinates(context);
+            return buildUrl(coordinates[0], coordinates[1]);
+        }
+        return buildUrl(SunshinePreferences.getPreferredWeatherLocation(context));
+    }
+
+    /**
+     * Sets the grid coordinates are snapped to before they are requested. A coarser grid shares
+     * more cached forecasts between nearby positions; compare {@link CoordinateGrid#getHitRate()}
+     * across resolutions to pick one.
+     *
+     * @param grid The grid to use from now on
+     */
+    public static void setCoordinateGrid(CoordinateGrid grid) {
+        sCoordinateGrid = grid;
+    }
+
+    public static CoordinateGrid getCoordinateGrid() {
+        return sCoordinateGrid;
+    }
+
+    /**
+     * Consumes the body of an HTTP response while the connection is still open, so callers can
+     * parse it as it arrives instead of waiting for the whole thing.
+     *
+     * @param <T> The type of result produced from the response
+     */
+    public interface ResponseHandler<T> {
+
+        /**
+         * @param in The body of the HTTP response. It is closed for you once this returns.
+         * @return Whatever the handler makes of the response
+         * @throws IOException Related to stream reading
+         */
+        T handleResponse(InputStream in) throws IOException;
+    }
+
+    /**
+     * Thrown when the server answers with an HTTP error status, so that callers can tell a
+     * request the server rejected from one that never reached it.
+     */
+    public static class HttpStatusException extends IOException {
+        private final int mStatusCode;
+
+        public HttpStatusException(URL url, int statusCode) {
+            super("HTTP " + statusCode + " from " + url);
+            mStatusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+    }
+
+    /**
+     * Thrown when a response arrived but its body isn't what we expected, so that callers can
+     * tell a server that answered with something unreadable from a request that never got an
+     * answer. Asking again won't help.
+     */
+    public static class ResponseFormatException extends IOException {
+
+        public ResponseFormatException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Sets how hard forecast fetches try: retries, backoff and circuit breaking.
+     *
+     * @param policy The policy to use from now on
+     */
+    public static void setFetchPolicy(FetchPolicy policy) {
+        sFetchPolicy = policy;
+    }
+
+    /**
+     * Sets the cache used to revalidate forecast responses instead of downloading them again.
+     *
+     * @param cache The cache to use from now on, or null to always download the full response
+     */
+    public static void setResponseCache(ForecastResponseCache cache) {
+        sResponseCache = cache;
+    }
+
+    /**
+     * This method hands the body of the HTTP response to the given handler as a stream.
+     * <p/>
+     * The request is made according to the current {@link FetchPolicy}: failures are retried
+     * with backoff, and while the host's circuit breaker is open the handler is given the last
+     * cached response for the URL instead.
+     * <p/>
+     * If a response cache has been set and holds an earlier response for this URL, the request
+     * carries that response's validators. When the server answers 304 Not Modified, the handler
+     * reads the cached body instead. Full responses that carry validators are copied into the
+     * cache as the handler reads them.
+     * <p/>
+     * Responses are requested compressed and decoded as they stream in. The connection is
+     * returned to the platform's keep-alive pool afterwards rather than closed.
+     *
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Consumes the body of the response.
+     * @return The result of the handler.
      * @throws IOException Related to network and stream reading
      */
-    public static String getResponseFromHttpUrl(URL url) throws IOException {
+    public static <T> T getResponseFromHttpUrl(final URL url, final ResponseHandler<T> handler)
+            throws IOException {
+        return sFetchPolicy.execute(url, new FetchPolicy.Attempt<T>() {
+            @Override
+            public T fetch() throws IOException {
+                return fetchResponse(url, handler);
+            }
+
+            @Override
+            public T fallback() throws IOException {
+                return readCachedResponse(url, handler);
+            }
+        });
+    }
+
+    /*
+     * Makes a single request for the URL, revalidating against the response cache.
+     */
+    private static <T> T fetchResponse(URL url, ResponseHandler<T> handler)
+            throws IOException {
+        ForecastResponseCache cache = sResponseCache;
+        ForecastResponseCache.Entry cached = null;
+        InputStream cachedBody = null;
+        if (cache != null) {
+            cached = cache.get(url);
+            if (cached != null) {
+                /* Open it now, so an eviction can't take the body away after the server's 304 */
+                try {
+                    cachedBody = cache.openBody(cached);
+                } catch (IOException e) {
+                    cached = null;
+                }
+            }
+        }
+
         HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        /*
+         * Asking for compression ourselves means the platform leaves the decoding to us, which is
+         * what lets us count the compressed bytes separately from the decoded ones.
+         */
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+        boolean readToEnd = false;
         try {
-            InputStream in = urlConnection.getInputStream();
+            if (cached != null) {
+                if (cached.eTag != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, cached.eTag);
+                }
+                if (cached.lastModified != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, cached.lastModified);
+                }
+            }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+            if (cachedBody != null
+                    && urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                cache.recordHit();
+                recordGridRequest(url, true);
+                /* A 304 has no body, but closing its stream hands the connection back to the pool */
+                urlConnection.getInputStream().close();
+                readToEnd = true;
+                InputStream in = cachedBody;
+                cachedBody = null;
+                try {
+                    return handler.handleResponse(in);
+                } finally {
+                    in.close();
+                }
+            }
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                /* Read the error body too, so the connection can still be reused */
+                InputStream error = urlConnection.getErrorStream();
+                if (error != null) {
+                    drain(error);
+                    error.close();
+                    readToEnd = true;
+                }
+                throw new HttpStatusException(url, responseCode);
+            }
 
-            boolean hasInput = scanner.hasNext();
-            if (hasInput) {
-                return scanner.next();
-            } else {
-                return null;
+            recordGridRequest(url, false);
+            InputStream in = openResponseBody(urlConnection);
+            ForecastResponseCache.Editor editor = null;
+            if (cache != null) {
+                cache.recordMiss();
+                editor = startCacheEntry(cache, url, urlConnection);
+                if (editor != null) {
+                    in = editor.wrap(in);
+                }
             }
+            try {
+                T result = handler.handleResponse(in);
+                /*
+                 * Read whatever the handler left, so the connection can be reused for the next
+                 * request and the cached copy is complete.
+                 */
+                drain(in);
+                readToEnd = true;
+                /* Don't keep responses the handler couldn't make sense of */
+                if (editor != null && result != null) {
+                    editor.commit();
+                    editor = null;
+                }
+                return result;
+            } finally {
+                if (editor != null) {
+                    editor.abort();
+                }
+                in.close();
+            }
+        } finally {
+            if (cachedBody != null) {
+                cachedBody.close();
+            }
+            /*
+             * A connection whose response was read to the end goes back to the keep-alive pool
+             * when its stream is closed. Anything else might be left mid-response, so it has to
+             * be thrown away rather than reused.
+             */
+            if (!readToEnd) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /*
+     * Opens the body of a response, decompressing it if the server used gzip or deflate, and
+     * counting the bytes both as they arrive and once they have been decoded.
+     */
+    private static InputStream openResponseBody(HttpURLConnection urlConnection)
+            throws IOException {
+        InputStream in = new CountingInputStream(urlConnection.getInputStream(), sWireByteCount);
+        String encoding = urlConnection.getContentEncoding();
+        if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+            in = new GZIPInputStream(in);
+        } else if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+            in = new InflaterInputStream(in);
+        }
+        return new BufferedInputStream(new CountingInputStream(in, sDecodedByteCount));
+    }
+
+    /**
+     * @return The number of response body bytes read off the network, before decompression,
+     * since the process started
+     */
+    public static long getWireByteCount() {
+        return sWireByteCount.get();
+    }
+
+    /**
+     * @return The number of response body bytes after decompression since the process started.
+     * Compared with {@link #getWireByteCount()}, this shows how much compression is saving.
+     */
+    public static long getDecodedByteCount() {
+        return sDecodedByteCount.get();
+    }
+
+    /*
+     * Adds every byte read through it to a running total.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCount;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            mCount = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount.addAndGet(skipped);
+            return skipped;
+        }
+    }
+
+    /*
+     * Hands the last cached response for the URL to the handler, without going to the network.
+     * Returns null if nothing is cached for it.
+     */
+    private static <T> T readCachedResponse(URL url, ResponseHandler<T> handler)
+            throws IOException {
+        ForecastResponseCache cache = sResponseCache;
+        ForecastResponseCache.Entry cached = cache == null ? null : cache.get(url);
+        if (cached == null) {
+            return null;
+        }
+        Log.d(TAG, "Serving cached response for " + url);
+        recordGridRequest(url, true);
+        InputStream in = cache.openBody(cached);
+        try {
+            return handler.handleResponse(in);
         } finally {
-            urlConnection.disconnect();
+            in.close();
+        }
+    }
+
+    /*
+     * Counts a request for a snapped position towards the coordinate grid's hit rate, once we
+     * know whether it was answered from the cache. Requests by location string don't count.
+     */
+    private static void recordGridRequest(URL url, boolean servedFromCache) {
+        if (Uri.parse(url.toString()).getQueryParameter(LAT_PARAM) != null) {
+            sCoordinateGrid.recordRequest(servedFromCache);
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Starts caching a full response, as long as it came with something to revalidate it by.
+     * A cache that can't be written to is not a reason to fail the request, so that just
+     * returns null.
+     */
+    private static ForecastResponseCache.Editor startCacheEntry(ForecastResponseCache cache,
+            URL url, HttpURLConnection urlConnection) {
+        String eTag = urlConnection.getHeaderField(HEADER_ETAG);
+        String lastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (eTag == null && lastModified == null) {
+            return null;
+        }
+        try {
+            return cache.edit(url, eTag, lastModified);
+        } catch (IOException e) {
+            Log.w(TAG, "Not caching response for " + url, e);
+            return null;
+        }
+    }
+
+    /*
+     * Reads whatever the handler left of the stream, so that the cached copy is complete.
+     */
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // Keep reading
+        }
+    }
+
+    /**
+     * This method returns the entire result from the HTTP response.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return The contents of the HTTP response.
+     * @throws IOException Related to network and stream reading
+     */
+    public static String getResponseFromHttpUrl(URL url) throws IOException {
+        return getResponseFromHttpUrl(url, new ResponseHandler<String>() {
+            @Override
+            public String handleResponse(InputStream in) {
+                Scanner scanner = new Scanner(in);
+                scanner.useDelimiter("\\A");
+
+                boolean hasInput = scanner.hasNext();
+                if (hasInput) {
+                    return scanner.next();
+                } else {
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches and parses the forecast at a URL. If the same URL is already being fetched, for
+     * example by a scheduled sync while the user asks for a refresh, this waits for that fetch
+     * and shares its result instead of making a second round trip.
+     *
+     * @param url The forecast URL, as built by {@link #buildUrl(String)} or {@link #getUrl}
+     * @return The forecast, or null if the server reported an error
+     * @throws IOException Related to network and stream reading, or if the response couldn't
+     *                     be parsed
+     */
+    public static WeatherBatch getForecast(final URL url) throws IOException {
+        return sForecastFetches.fetch(url, new Callable<WeatherBatch>() {
+            @Override
+            public WeatherBatch call() throws IOException {
+                return getResponseFromHttpUrl(url, new ResponseHandler<WeatherBatch>() {
+                    @Override
+                    public WeatherBatch handleResponse(InputStream in) throws IOException {
+                        WeatherBatch weather = new WeatherBatch();
+                        return OpenWeatherJsonUtils.getFullWeatherData(in, weather)
+                                ? weather
+                                : null;
+                    }
+                });
+            }
+        });
+    }
+}
@@ -17,25 +17,256 @@ package com.example.android.sunshine.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.data.PreferencesSnapshot;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherBatch;
+import com.example.android.sunshine.data.WeatherContract;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 
 /**
  * Utility functions to handle OpenWeatherMap JSON data.
  */
 public final class OpenWeatherJsonUtils {
 
+    /* Weather information. Each day's forecast info is an element of the "list" array */
+    private static final String OWM_LIST = "list";
+
+    /* Number of days in the "list" array, sent ahead of it by the server */
+    private static final String OWM_COUNT = "cnt";
+
+    private static final String OWM_DATE = "dt";
+
+    /* All temperatures are children of the "temp" object */
+    private static final String OWM_TEMPERATURE = "temp";
+
+    /* Max temperature for the day */
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_WEATHER_ID = "id";
+    private static final String OWM_DESCRIPTION = "main";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * One day of forecast data as it comes off the stream. The parser reuses a single instance
+     * for every day of a response, so listeners must copy out whatever they want to keep before
+     * returning.
+     */
+    public static final class DayForecast {
+        public long dateTimeSeconds;
+        public int weatherId;
+        public String description;
+        public double min;
+        public double max;
+        public double humidity;
+        public double pressure;
+        public double windSpeed;
+        public double degrees;
+
+        private void reset() {
+            dateTimeSeconds = 0;
+            weatherId = 0;
+            description = null;
+            min = 0;
+            max = 0;
+            humidity = 0;
+            pressure = 0;
+            windSpeed = 0;
+            degrees = 0;
+        }
+    }
+
+    /**
+     * Receives each day of a forecast, in order, while the response is still being read.
+     */
+    public interface DayForecastListener {
+
+        /**
+         * Called once the number of days in the response is known, before the first day is
+         * delivered. Not called at all if the server doesn't send a count, or sends a negative
+         * one. The count is only a hint for sizing, so it is capped at
+         * {@link WeatherContract.WeatherEntry#MAX_UPCOMING_DAYS}; a response with more days
+         * still delivers all of them.
+         *
+         * @param dayCount The number of days the server says are in the "list" array, capped
+         */
+        void onDayCount(int dayCount);
+
+        /**
+         * @param dayIndex Position of the day within the "list" array, starting at 0 for today
+         * @param day      The parsed day. Only valid until this method returns.
+         */
+        void onDayForecast(int dayIndex, DayForecast day);
+    }
+
+    /**
+     * This method parses a forecast token by token straight off the given stream, handing each
+     * day of the "list" array to the listener as soon as it has been read. Unlike building a
+     * JSONObject, nothing but the current day is held in memory, so the heap used doesn't grow
+     * with the size of the response.
+     * <p/>
+     * The stream is not closed; that is left to whoever opened it.
+     *
+     * @param in       The body of the response from the server
+     * @param listener Receives each day as it is parsed
+     *
+     * @return The number of days parsed, or -1 if the server reported an error
+     *
+     * @throws IOException If the stream can't be read or doesn't hold the JSON we expect
+     */
+    public static int parseForecast(InputStream in, DayForecastListener listener)
+            throws IOException {
+        return parseForecast(new InputStreamReader(in, "UTF-8"), listener);
+    }
+
+    /**
+     * @see #parseForecast(InputStream, DayForecastListener)
+     */
+    public static int parseForecast(Reader in, DayForecastListener listener) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        int daysParsed = 0;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    /* Is there an error? */
+                    switch (reader.nextInt()) {
+                        case HttpURLConnection.HTTP_OK:
+                            break;
+                        case HttpURLConnection.HTTP_NOT_FOUND:
+                            /* Location invalid */
+                            return -1;
+                        default:
+                            /* Server probably down */
+                            return -1;
+                    }
+                } else if (OWM_COUNT.equals(name)) {
+                    /* Don't let the server decide how much we allocate up front */
+                    int dayCount = reader.nextInt();
+                    if (dayCount >= 0) {
+                        listener.onDayCount(
+                                Math.min(dayCount, WeatherContract.WeatherEntry.MAX_UPCOMING_DAYS));
+                    }
+                } else if (OWM_LIST.equals(name)) {
+                    DayForecast day = new DayForecast();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        day.reset();
+                        readDay(reader, day);
+                        listener.onDayForecast(daysParsed++, day);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            /* JsonReader reports tokens of the wrong type as unchecked exceptions */
+            throw new NetworkUtils.ResponseFormatException(
+                    "Unexpected forecast JSON: " + e.getMessage(), e);
+        }
+        return daysParsed;
+    }
+
+    /*
+     * Reads a single element of the "list" array into the given day.
+     */
+    private static void readDay(JsonReader reader, DayForecast day) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (OWM_DATE.equals(name)) {
+                day.dateTimeSeconds = reader.nextLong();
+            } else if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.degrees = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                /*
+                 * Temperatures are sent by Open Weather Map in a child object called "temp".
+                 *
+                 * Editor's Note: Try not to name variables "temp" when working with temperature.
+                 * It confuses everybody. Temp could easily mean any number of things, including
+                 * temperature, temporary and is just a bad variable name.
+                 */
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        day.max = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        day.min = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                /*
+                 * Description is in a child array called "weather", which is 1 element long.
+                 * That element also contains a weather code.
+                 */
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_WEATHER_ID.equals(weatherName)) {
+                            day.weatherId = reader.nextInt();
+                        } else if (OWM_DESCRIPTION.equals(weatherName)) {
+                            day.description = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
      * <p/>
-     * Later on, we'll be parsing the JSON into structured data within the
-     * getFullWeatherDataFromJson function, leveraging the data we have stored in the JSON. For
-     * now, we just convert the JSON into human-readable strings.
+     * This is kept for callers that already hold the whole response as a String. New code
+     * should use {@link #getSimpleWeatherStringsFromStream(Context, InputStream)}, which never
+     * needs the whole response in memory.
      *
      * @param forecastJsonStr JSON response from server
      *
@@ -45,95 +276,65 @@ public final class OpenWeatherJsonUtils {
      */
     public static String[] getSimpleWeatherStringsFromJson(Context context, String forecastJsonStr)
             throws JSONException {
+        try {
+            return getSimpleWeatherStrings(context, new StringReader(forecastJsonStr));
+        } catch (IOException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
 
-        /* Weather information. Each day's forecast info is an element of the "list" array */
-        final String OWM_LIST = "list";
-
-        /* All temperatures are children of the "temp" object */
-        final String OWM_TEMPERATURE = "temp";
-
-        /* Max temperature for the day */
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * This method parses JSON straight off a web response stream and returns an array of Strings
+     * describing the weather over various days from the forecast.
+     *
+     * @param context Used to format the dates and temperatures
+     * @param in      The body of the response from the server
+     *
+     * @return Array of Strings describing weather data, or null if the server reported an error
+     *
+     * @throws IOException If the stream can't be read or doesn't hold the JSON we expect
+     */
+    public static String[] getSimpleWeatherStringsFromStream(Context context, InputStream in)
+            throws IOException {
+        return getSimpleWeatherStrings(context, new InputStreamReader(in, "UTF-8"));
+    }
 
-        /* String array to hold each day's weather String */
-        String[] parsedWeatherData = null;
+    private static String[] getSimpleWeatherStrings(final Context context, Reader in)
+            throws IOException {
 
-        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        /* List to hold each day's weather String */
+        final ArrayList<String> parsedWeatherData = new ArrayList<>();
 
-        /* Is there an error? */
-        if (forecastJson.has(OWM_MESSAGE_CODE)) {
-            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+        long localDate = System.currentTimeMillis();
+        final long startDay = SunshineDateUtils.normalizeLocalDate(localDate);
+        final PreferencesSnapshot prefs = SunshinePreferences.getSnapshot(context);
+        final FriendlyDateRenderer dates = SunshineDateUtils.getDateRenderer(context);
+        dates.beginBatch(localDate);
 
-            switch (errorCode) {
-                case HttpURLConnection.HTTP_OK:
-                    break;
-                case HttpURLConnection.HTTP_NOT_FOUND:
-                    /* Location invalid */
-                    return null;
-                default:
-                    /* Server probably down */
-                    return null;
+        int dayCount = parseForecast(in, new DayForecastListener() {
+            @Override
+            public void onDayCount(int dayCount) {
+                parsedWeatherData.ensureCapacity(dayCount);
             }
-        }
 
-        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+            @Override
+            public void onDayForecast(int dayIndex, DayForecast day) {
+                /*
+                 * We ignore all the datetime values embedded in the JSON and assume that
+                 * the values are returned in-order by day (which is not guaranteed to be correct).
+                 */
+                long dateTimeMillis = startDay + SunshineDateUtils.DAY_IN_MILLIS * dayIndex;
+                String date = dates.render(dateTimeMillis, false);
+                String highAndLow = SunshineWeatherUtils.formatHighLows(context, prefs, day.max, day.min);
 
-        parsedWeatherData = new String[weatherArray.length()];
+                parsedWeatherData.add(date + " - " + day.description + " - " + highAndLow);
+            }
+        });
 
-        long localDate = System.currentTimeMillis();
-        long utcDate = SunshineDateUtils.getUTCDateFromLocal(localDate);
-        long startDay = SunshineDateUtils.normalizeDate(utcDate);
-
-        for (int i = 0; i < weatherArray.length(); i++) {
-            String date;
-            String highAndLow;
-
-            /* These are the values that will be collected */
-            long dateTimeMillis;
-            double high;
-            double low;
-            String description;
-
-            /* Get the JSON object representing the day */
-            JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-            /*
-             * We ignore all the datetime values embedded in the JSON and assume that
-             * the values are returned in-order by day (which is not guaranteed to be correct).
-             */
-            dateTimeMillis = startDay + SunshineDateUtils.DAY_IN_MILLIS * i;
-            date = SunshineDateUtils.getFriendlyDateString(context, dateTimeMillis, false);
-
-            /*
-             * Description is in a child array called "weather", which is 1 element long.
-             * That element also contains a weather code.
-             */
-            JSONObject weatherObject =
-                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-            description = weatherObject.getString(OWM_DESCRIPTION);
-
-            /*
-             * Temperatures are sent by Open Weather Map in a child object called "temp".
-             *
-             * Editor's Note: Try not to name variables "temp" when working with temperature.
-             * It confuses everybody. Temp could easily mean any number of things, including
-             * temperature, temporary and is just a bad variable name.
-             */
-            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-            high = temperatureObject.getDouble(OWM_MAX);
-            low = temperatureObject.getDouble(OWM_MIN);
-            highAndLow = SunshineWeatherUtils.formatHighLows(context, high, low);
-
-            parsedWeatherData[i] = date + " - " + description + " - " + highAndLow;
+        if (dayCount < 0) {
+            return null;
         }
-
-        return parsedWeatherData;
+        return parsedWeatherData.toArray(new String[parsedWeatherData.size()]);
     }
 
     /**
@@ -142,10 +343,69 @@ public final class OpenWeatherJsonUtils {
      * @param context         An application context, such as a service or activity context.
      * @param forecastJsonStr The JSON to parse into ContentValues.
      *
-     * @return An array of ContentValues parsed from the JSON.
+     * @return An array of ContentValues parsed from the JSON, or null if the server reported an
+     * error.
+     *
+     * @throws JSONException If JSON data cannot be properly parsed
+     */
+    public static ContentValues[] getFullWeatherDataFromJson(Context context, String forecastJsonStr)
+            throws JSONException {
+        WeatherBatch batch = new WeatherBatch();
+        try {
+            if (!getFullWeatherData(new StringReader(forecastJsonStr), batch)) {
+                return null;
+            }
+        } catch (IOException e) {
+            throw new JSONException(e.getMessage());
+        }
+        return batch.toContentValues();
+    }
+
+    /**
+     * Parses every column of {@link WeatherContract.WeatherEntry} for each day of the forecast in
+     * a single pass over the stream, appending the rows to the given batch. Nothing is boxed
+     * along the way; call {@link WeatherBatch#toContentValues()} when the rows are ready to be
+     * inserted.
+     *
+     * @param in    The body of the response from the server
+     * @param batch Receives one row per day. It is not cleared first.
+     *
+     * @return false if the server reported an error, in which case the batch may hold a partial
+     * forecast
+     *
+     * @throws IOException If the stream can't be read or doesn't hold the JSON we expect
      */
-    public static ContentValues[] getFullWeatherDataFromJson(Context context, String forecastJsonStr) {
-        /** This will be implemented in a future lesson **/
-        return null;
+    public static boolean getFullWeatherData(InputStream in, WeatherBatch batch)
+            throws IOException {
+        return getFullWeatherData(new InputStreamReader(in, "UTF-8"), batch);
+    }
+
+    private static boolean getFullWeatherData(Reader in, final WeatherBatch batch)
+            throws IOException {
+
+        long localDate = System.currentTimeMillis();
+        final long startDay = SunshineDateUtils.normalizeLocalDate(localDate);
+        final int firstPosition = batch.size();
+
+        int dayCount = parseForecast(in, new DayForecastListener() {
+            @Override
+            public void onDayCount(int dayCount) {
+                batch.ensureCapacity(firstPosition + dayCount);
+            }
+
+            @Override
+            public void onDayForecast(int dayIndex, DayForecast day) {
+                /*
+                 * As with the simple weather strings, we ignore the datetime values embedded in
+                 * the JSON and assume one day per element, starting today.
+                 */
+                long dateTimeMillis = startDay + SunshineDateUtils.DAY_IN_MILLIS * dayIndex;
+
+                batch.add(dateTimeMillis, day.weatherId, day.min, day.max, day.humidity,
+                        day.pressure, day.windSpeed, day.degrees);
+            }
+        });
+
+        return dayCount >= 0;
     }
-}
\ No newline at end of file
+}
@@ -16,11 +16,8 @@
 package com.example.android.sunshine.utilities;
 
 import android.content.Context;
-import android.text.format.DateUtils;
 
-import com.example.android.sunshine.R;
-
-import java.text.SimpleDateFormat;
+import java.util.Locale;
 import java.util.TimeZone;
 
 /**
@@ -33,6 +30,9 @@ public final class SunshineDateUtils {
     public static final long HOUR_IN_MILLIS = MINUTE_IN_MILLIS * 60;
     public static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
 
+    /* Each thread renders with its own formatters, which aren't thread safe */
+    private static final ThreadLocal<FriendlyDateRenderer> sDateRenderer = new ThreadLocal<>();
+
     /**
      * This method returns the number of days since the epoch (January 01, 1970, 12:00 Midnight UTC)
      * in UTC time from the current date.
@@ -61,6 +61,26 @@ public final class SunshineDateUtils {
         return retValNew;
     }
 
+    /**
+     * Normalizes the local day a moment falls on, the way the forecast parser stores each day:
+     * the local calendar date, at midnight UTC.
+     *
+     * @param date A moment in milliseconds since the epoch, such as System.currentTimeMillis()
+     *
+     * @return The normalized date of the local day it falls on
+     */
+    public static long normalizeLocalDate(long date) {
+        return normalizeDate(getUTCDateFromLocal(date));
+    }
+
+    /**
+     * @return The normalized date of today in the default time zone, which is the date the
+     * database holds today's forecast under
+     */
+    public static long getNormalizedToday() {
+        return normalizeLocalDate(System.currentTimeMillis());
+    }
+
     /**
      * Since all dates from the database are in UTC, we must convert the given date
      * (in UTC timezone) to the date in the local timezone. Ths function performs that conversion
@@ -107,91 +127,27 @@ public final class SunshineDateUtils {
      * or "Friday"
      */
     public static String getFriendlyDateString(Context context, long dateInMillis, boolean showFullDate) {
-
-        long localDate = getLocalDateFromUTC(dateInMillis);
-        long dayNumber = getDayNumber(localDate);
-        long currentDayNumber = getDayNumber(System.currentTimeMillis());
-
-        if (dayNumber == currentDayNumber || showFullDate) {
-            /*
-             * If the date we're building the String for is today's date, the format
-             * is "Today, June 24"
-             */
-            String dayName = getDayName(context, localDate);
-            String readableDate = getReadableDateString(context, localDate);
-            if (dayNumber - currentDayNumber < 2) {
-                /*
-                 * Since there is no localized format that returns "Today" or "Tomorrow" in the API
-                 * levels we have to support, we take the name of the day (from SimpleDateFormat)
-                 * and use it to replace the date from DateUtils. This isn't guaranteed to work,
-                 * but our testing so far has been conclusively positive.
-                 *
-                 * For information on a simpler API to use (on API > 18), please check out the
-                 * documentation on DateFormat#getBestDateTimePattern(Locale, String)
-                 * https://developer.android.com/reference/android/text/format/DateFormat.html#getBestDateTimePattern
-                 */
-                String localizedDayName = new SimpleDateFormat("EEEE").format(localDate);
-                return readableDate.replace(localizedDayName, dayName);
-            } else {
-                return readableDate;
-            }
-        } else if (dayNumber < currentDayNumber + 7) {
-            /* If the input date is less than a week in the future, just return the day name. */
-            return getDayName(context, localDate);
-        } else {
-            int flags = DateUtils.FORMAT_SHOW_DATE
-                    | DateUtils.FORMAT_NO_YEAR
-                    | DateUtils.FORMAT_ABBREV_ALL
-                    | DateUtils.FORMAT_SHOW_WEEKDAY;
-
-            return DateUtils.formatDateTime(context, localDate, flags);
-        }
-    }
-
-    /**
-     * Returns a date string in the format specified, which shows a date, without a year,
-     * abbreviated, showing the full weekday.
-     *
-     * @param context      Used by DateUtils to formate the date in the current locale
-     * @param timeInMillis Time in milliseconds since the epoch (local time)
-     *
-     * @return The formatted date string
-     */
-    private static String getReadableDateString(Context context, long timeInMillis) {
-        int flags = DateUtils.FORMAT_SHOW_DATE
-                | DateUtils.FORMAT_NO_YEAR
-                | DateUtils.FORMAT_SHOW_WEEKDAY;
-
-        return DateUtils.formatDateTime(context, timeInMillis, flags);
+        FriendlyDateRenderer renderer = getDateRenderer(context);
+        renderer.beginBatch(System.currentTimeMillis());
+        return renderer.render(dateInMillis, showFullDate);
     }
 
     /**
-     * Given a day, returns just the name to use for that day.
-     *   E.g "today", "tomorrow", "Wednesday".
-     *
-     * @param context      Context to use for resource localization
-     * @param dateInMillis The date in milliseconds (local time)
+     * Returns this thread's renderer for the default time zone and locale, replacing it if
+     * either has changed. To render a list of dates, call
+     * {@link FriendlyDateRenderer#beginBatch} once and then render each date.
      *
-     * @return the string day of the week
+     * @param context Context to use for resource localization
+     * @return A renderer to be used on this thread only
      */
-    private static String getDayName(Context context, long dateInMillis) {
-        /*
-         * If the date is today, return the localized version of "Today" instead of the actual
-         * day name.
-         */
-        long dayNumber = getDayNumber(dateInMillis);
-        long currentDayNumber = getDayNumber(System.currentTimeMillis());
-        if (dayNumber == currentDayNumber) {
-            return context.getString(R.string.today);
-        } else if (dayNumber == currentDayNumber + 1) {
-            return context.getString(R.string.tomorrow);
-        } else {
-            /*
-             * Otherwise, if the day is not today, the format is just the day of the week
-             * (e.g "Wednesday")
-             */
-            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-            return dayFormat.format(dateInMillis);
+    public static FriendlyDateRenderer getDateRenderer(Context context) {
+        TimeZone timeZone = TimeZone.getDefault();
+        Locale locale = Locale.getDefault();
+        FriendlyDateRenderer renderer = sDateRenderer.get();
+        if (renderer == null || !renderer.isFor(timeZone, locale)) {
+            renderer = new FriendlyDateRenderer(context.getApplicationContext(), timeZone, locale);
+            sDateRenderer.set(renderer);
         }
+        return renderer;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Everything the app shows for an OpenWeatherMap condition code, in one table indexed directly
+ * by the code: the label, the small icon, the large art and the condition's category. Looking a
+ * condition up is a single array read instead of a walk through a switch or a chain of range
+ * checks.
+ * <p>
+ * Labels are resolved from resources the first time each code is shown and kept for the current
+ * locale, so showing the same conditions again allocates nothing. When the locale changes the
+ * labels are resolved again.
+ * <p>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    private static final String LOG_TAG = WeatherConditions.class.getSimpleName();
+
+    /* The groups OpenWeatherMap sorts its codes into */
+    public static final int CATEGORY_UNKNOWN = 0;
+    public static final int CATEGORY_THUNDERSTORM = 1;
+    public static final int CATEGORY_DRIZZLE = 2;
+    public static final int CATEGORY_RAIN = 3;
+    public static final int CATEGORY_SNOW = 4;
+    public static final int CATEGORY_ATMOSPHERE = 5;
+    public static final int CATEGORY_CLEAR = 6;
+    public static final int CATEGORY_CLOUDS = 7;
+    public static final int CATEGORY_EXTREME = 8;
+    public static final int CATEGORY_ADDITIONAL = 9;
+
+    /* The lowest and highest codes OpenWeatherMap sends */
+    private static final int FIRST_ID = 200;
+    private static final int LAST_ID = 962;
+
+    /* A resource ID is never 0, so 0 marks a code with no label or art of its own */
+    private static final int NONE = 0;
+
+    private static final int[] LABELS = new int[LAST_ID - FIRST_ID + 1];
+    private static final int[] ICONS = new int[LAST_ID - FIRST_ID + 1];
+    private static final int[] ART = new int[LAST_ID - FIRST_ID + 1];
+    private static final byte[] CATEGORIES = new byte[LAST_ID - FIRST_ID + 1];
+
+    static {
+        Arrays.fill(ICONS, -1);
+
+        label(200, 232, R.string.condition_2xx);
+        label(300, 321, R.string.condition_3xx);
+        label(500, R.string.condition_500);
+        label(501, R.string.condition_501);
+        label(502, R.string.condition_502);
+        label(503, R.string.condition_503);
+        label(504, R.string.condition_504);
+        label(511, R.string.condition_511);
+        label(520, R.string.condition_520);
+        label(531, R.string.condition_531);
+        label(600, R.string.condition_600);
+        label(601, R.string.condition_601);
+        label(602, R.string.condition_602);
+        label(611, R.string.condition_611);
+        label(612, R.string.condition_612);
+        label(615, R.string.condition_615);
+        label(616, R.string.condition_616);
+        label(620, R.string.condition_620);
+        label(621, R.string.condition_621);
+        label(622, R.string.condition_622);
+        label(701, R.string.condition_701);
+        label(711, R.string.condition_711);
+        label(721, R.string.condition_721);
+        label(731, R.string.condition_731);
+        label(741, R.string.condition_741);
+        label(751, R.string.condition_751);
+        label(761, R.string.condition_761);
+        label(762, R.string.condition_762);
+        label(771, R.string.condition_771);
+        label(781, R.string.condition_781);
+        label(800, R.string.condition_800);
+        label(801, R.string.condition_801);
+        label(802, R.string.condition_802);
+        label(803, R.string.condition_803);
+        label(804, R.string.condition_804);
+        label(900, R.string.condition_900);
+        label(901, R.string.condition_901);
+        label(902, R.string.condition_902);
+        label(903, R.string.condition_903);
+        label(904, R.string.condition_904);
+        label(905, R.string.condition_905);
+        label(906, R.string.condition_906);
+        label(951, R.string.condition_951);
+        label(952, R.string.condition_952);
+        label(953, R.string.condition_953);
+        label(954, R.string.condition_954);
+        label(955, R.string.condition_955);
+        label(956, R.string.condition_956);
+        label(957, R.string.condition_957);
+        label(958, R.string.condition_958);
+        label(959, R.string.condition_959);
+        label(960, R.string.condition_960);
+        label(961, R.string.condition_961);
+        label(962, R.string.condition_962);
+
+        /* 521 and 522 have an icon but no label; the extreme and additional codes have none */
+        icon(200, 232, R.drawable.ic_storm, R.drawable.art_storm);
+        icon(300, 321, R.drawable.ic_light_rain, R.drawable.art_light_rain);
+        icon(500, 504, R.drawable.ic_rain, R.drawable.art_rain);
+        icon(511, 511, R.drawable.ic_snow, R.drawable.art_snow);
+        icon(520, 531, R.drawable.ic_rain, R.drawable.art_rain);
+        icon(600, 622, R.drawable.ic_snow, R.drawable.art_snow);
+        icon(701, 761, R.drawable.ic_fog, R.drawable.art_fog);
+        icon(781, 781, R.drawable.ic_storm, R.drawable.art_storm);
+        icon(800, 800, R.drawable.ic_clear, R.drawable.art_clear);
+        icon(801, 801, R.drawable.ic_light_clouds, R.drawable.art_light_clouds);
+        icon(802, 804, R.drawable.ic_cloudy, R.drawable.art_clouds);
+        art(771, 771, R.drawable.art_storm);
+        art(900, 906, R.drawable.art_storm);
+        art(951, 957, R.drawable.art_clear);
+        art(958, 962, R.drawable.art_storm);
+
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            int index = id - FIRST_ID;
+            if (LABELS[index] != NONE || ART[index] != NONE) {
+                CATEGORIES[index] = (byte) categoryOf(id);
+            }
+        }
+    }
+
+    private static void label(int id, int stringId) {
+        label(id, id, stringId);
+    }
+
+    private static void label(int firstId, int lastId, int stringId) {
+        Arrays.fill(LABELS, firstId - FIRST_ID, lastId - FIRST_ID + 1, stringId);
+    }
+
+    private static void icon(int firstId, int lastId, int iconId, int artId) {
+        Arrays.fill(ICONS, firstId - FIRST_ID, lastId - FIRST_ID + 1, iconId);
+        art(firstId, lastId, artId);
+    }
+
+    private static void art(int firstId, int lastId, int artId) {
+        Arrays.fill(ART, firstId - FIRST_ID, lastId - FIRST_ID + 1, artId);
+    }
+
+    private static int categoryOf(int weatherId) {
+        switch (weatherId / 100) {
+            case 2:
+                return CATEGORY_THUNDERSTORM;
+            case 3:
+                return CATEGORY_DRIZZLE;
+            case 5:
+                return CATEGORY_RAIN;
+            case 6:
+                return CATEGORY_SNOW;
+            case 7:
+                return CATEGORY_ATMOSPHERE;
+            case 8:
+                return weatherId == 800 ? CATEGORY_CLEAR : CATEGORY_CLOUDS;
+            default:
+                return weatherId < 950 ? CATEGORY_EXTREME : CATEGORY_ADDITIONAL;
+        }
+    }
+
+    /* The labels resolved so far for one locale, filled in as codes are first shown */
+    private static final class Labels {
+        final Locale locale;
+        final String[] strings = new String[LAST_ID - FIRST_ID + 1];
+
+        Labels(Locale locale) {
+            this.locale = locale;
+        }
+    }
+
+    private static volatile Labels sLabels;
+
+    private WeatherConditions() {
+    }
+
+    private static boolean inTable(int weatherId) {
+        return weatherId >= FIRST_ID && weatherId <= LAST_ID;
+    }
+
+    /**
+     * @param context   Android context, for the label
+     * @param weatherId from OpenWeatherMap API response
+     *
+     * @return The condition's label, or "Unknown (id)" for a code without one
+     */
+    public static String getLabel(Context context, int weatherId) {
+        if (!inTable(weatherId)) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        /* The same locale WeatherFormatter keys on, so a row never mixes two languages */
+        Locale locale = Locale.getDefault();
+        Labels labels = sLabels;
+        if (labels == null || !labels.locale.equals(locale)) {
+            labels = new Labels(locale);
+            sLabels = labels;
+        }
+        int index = weatherId - FIRST_ID;
+        String label = labels.strings[index];
+        if (label == null) {
+            /* Two threads may both resolve it; either string is the same */
+            label = LABELS[index] != NONE
+                    ? context.getString(LABELS[index])
+                    : context.getString(R.string.condition_unknown, weatherId);
+            labels.strings[index] = label;
+        }
+        return label;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     *
+     * @return resource id for the corresponding icon. -1 if no relation is found.
+     */
+    public static int getIcon(int weatherId) {
+        return inTable(weatherId) ? ICONS[weatherId - FIRST_ID] : -1;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     *
+     * @return resource id for the corresponding art, or the storm art if no relation is found
+     */
+    public static int getArt(int weatherId) {
+        int artId = inTable(weatherId) ? ART[weatherId - FIRST_ID] : NONE;
+        if (artId == NONE) {
+            Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
+            return R.drawable.art_storm;
+        }
+        return artId;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     *
+     * @return One of the CATEGORY_ constants, {@link #CATEGORY_UNKNOWN} if the code isn't known
+     */
+    public static int getCategory(int weatherId) {
+        return inTable(weatherId) ? CATEGORIES[weatherId - FIRST_ID] : CATEGORY_UNKNOWN;
+    }
+}
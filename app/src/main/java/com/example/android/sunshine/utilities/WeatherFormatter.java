@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.PreferencesSnapshot;
+
+import java.util.Locale;
+
+/**
+ * Formats temperatures and wind into a StringBuilder the caller reuses, producing exactly what
+ * String.format with the app's format resources would, without parsing a format string or
+ * allocating for every value.
+ * <p>
+ * Whole temperatures and wind speeds in the range a forecast realistically shows are rendered
+ * once, the first time each is needed, and kept in a table per unit system and locale. A value
+ * is rounded the way "%1.0f" rounds it and then looked up; anything outside the tables, or not a
+ * number, falls back to String.format. The compass direction is worked out arithmetically.
+ * <p>
+ * {@link #getInstance} keeps one formatter for the current units and locale, so the tables are
+ * only rebuilt when one of them changes.
+ */
+public final class WeatherFormatter {
+
+    /* Whole temperatures rendered from tables, in the units they are shown in */
+    private static final int MIN_TABLE_TEMPERATURE = -100;
+    private static final int MAX_TABLE_TEMPERATURE = 150;
+    /* Whole wind speeds rendered from tables, in km/h or mph */
+    private static final int MAX_TABLE_WIND_SPEED = 250;
+
+    private static final String HIGH_LOW_SEPARATOR = " / ";
+
+    private static final float KMH_TO_MPH = .621371192237334f;
+
+    /* Clockwise from north, each covering 45 degrees */
+    private static final String[] COMPASS_SECTORS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+    private static final String UNKNOWN_DIRECTION = "Unknown";
+
+    /* Stands in for the direction when splitting the wind format around it */
+    private static final String DIRECTION_MARKER = "\u0000";
+
+    private static volatile WeatherFormatter sInstance;
+
+    private final boolean mMetric;
+    private final Locale mLocale;
+    private final String mTemperatureFormat;
+    private final String mWindFormat;
+
+    /*
+     * Filled in as each value is first shown. Two threads may both render the same value, but
+     * either string is the same.
+     */
+    private final String[] mTemperatures =
+            new String[MAX_TABLE_TEMPERATURE - MIN_TABLE_TEMPERATURE + 1];
+    /* "%1.0f" prints zero rounded from a negative number as "-0" */
+    private String mNegativeZero;
+    /* The wind format before and after the direction, for each whole speed */
+    private final String[] mWindBeforeDirection = new String[MAX_TABLE_WIND_SPEED + 1];
+    private final String[] mWindAfterDirection = new String[MAX_TABLE_WIND_SPEED + 1];
+
+    WeatherFormatter(Context context, boolean metric, Locale locale) {
+        mMetric = metric;
+        mLocale = locale;
+        mTemperatureFormat = context.getString(metric
+                ? R.string.format_temperature_celsius
+                : R.string.format_temperature_fahrenheit);
+        mWindFormat = context.getString(metric ? R.string.format_wind_kmh : R.string.format_wind_mph);
+    }
+
+    /**
+     * Returns the formatter for the units in a snapshot and the current locale, reusing the
+     * previous one, and the values it has already rendered, while neither has changed.
+     *
+     * @param context Android Context to access resources
+     * @param prefs   The settings to format with
+     * @return A formatter for the current units and locale
+     */
+    public static WeatherFormatter getInstance(Context context, PreferencesSnapshot prefs) {
+        Locale locale = Locale.getDefault();
+        WeatherFormatter formatter = sInstance;
+        if (formatter == null || formatter.mMetric != prefs.isMetric()
+                || !formatter.mLocale.equals(locale)) {
+            formatter = new WeatherFormatter(context.getApplicationContext(), prefs.isMetric(),
+                    locale);
+            sInstance = formatter;
+        }
+        return formatter;
+    }
+
+    /**
+     * @return true if this formatter shows metric units
+     */
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /*
+     * Rounds the way "%1.0f" does: to the nearest whole number, with halves away from zero. The
+     * fraction is taken exactly, so values a hair under a half aren't pushed over by rounding
+     * error.
+     */
+    private static long roundHalfUp(double value) {
+        double magnitude = Math.abs(value);
+        double whole = Math.floor(magnitude);
+        long rounded = (long) whole + (magnitude - whole >= 0.5 ? 1 : 0);
+        return value < 0 ? -rounded : rounded;
+    }
+
+    /* The sign bit, which is also set for -0.0 */
+    private static boolean isNegative(double value) {
+        return Double.doubleToRawLongBits(value) < 0;
+    }
+
+    /*
+     * The rendering of a temperature already in the units shown, from the table, or null if it
+     * is outside the table.
+     */
+    private String lookUpTemperature(double shown) {
+        if (Double.isNaN(shown) || shown <= MIN_TABLE_TEMPERATURE - 0.5
+                || shown >= MAX_TABLE_TEMPERATURE + 0.5) {
+            return null;
+        }
+        long rounded = roundHalfUp(shown);
+        if (rounded == 0 && isNegative(shown)) {
+            if (mNegativeZero == null) {
+                mNegativeZero = String.format(mTemperatureFormat, -0.0);
+            }
+            return mNegativeZero;
+        }
+        int index = (int) rounded - MIN_TABLE_TEMPERATURE;
+        String rendered = mTemperatures[index];
+        if (rendered == null) {
+            rendered = String.format(mTemperatureFormat, (double) rounded);
+            mTemperatures[index] = rendered;
+        }
+        return rendered;
+    }
+
+    private double toShownUnits(double temperature) {
+        return mMetric ? temperature : (temperature * 1.8) + 32;
+    }
+
+    /**
+     * Formats a temperature in the user's units, such as "21°C". A temperature inside the table
+     * comes back as the same String every time.
+     *
+     * @param temperature Temperature in degrees Celsius (°C)
+     * @return The formatted temperature
+     */
+    public String formatTemperature(double temperature) {
+        double shown = toShownUnits(temperature);
+        String rendered = lookUpTemperature(shown);
+        return rendered != null ? rendered : String.format(mTemperatureFormat, shown);
+    }
+
+    /**
+     * Appends a temperature in the user's units, such as "21°C".
+     *
+     * @param out         Where to write the temperature
+     * @param temperature Temperature in degrees Celsius (°C)
+     * @return out, for chaining
+     */
+    public StringBuilder appendTemperature(StringBuilder out, double temperature) {
+        return out.append(formatTemperature(temperature));
+    }
+
+    /**
+     * Appends a day's high and low, each rounded to a whole degree Celsius first, in the form
+     * "HIGH°C / LOW°C".
+     *
+     * @param out  Where to write the temperatures
+     * @param high High temperature for the day in degrees Celsius (°C)
+     * @param low  Low temperature for the day in degrees Celsius (°C)
+     * @return out, for chaining
+     */
+    public StringBuilder appendHighLow(StringBuilder out, double high, double low) {
+        appendTemperature(out, Math.round(high));
+        out.append(HIGH_LOW_SEPARATOR);
+        return appendTemperature(out, Math.round(low));
+    }
+
+    /**
+     * Appends the wind in the user's units with its compass direction, such as "2 km/h SW".
+     *
+     * @param out       Where to write the wind
+     * @param windSpeed Wind speed in kilometers / hour
+     * @param degrees   Degrees as measured on a compass, NOT temperature degrees!
+     * @return out, for chaining
+     */
+    public StringBuilder appendWind(StringBuilder out, float windSpeed, float degrees) {
+        if (!mMetric) {
+            windSpeed = KMH_TO_MPH * windSpeed;
+        }
+        String direction = getWindDirection(degrees);
+        /* Formatter prints a float as the double it widens to */
+        double speed = windSpeed;
+        if (Double.isNaN(speed) || isNegative(speed) || speed >= MAX_TABLE_WIND_SPEED + 0.5) {
+            return out.append(String.format(mWindFormat, windSpeed, direction));
+        }
+        int index = (int) roundHalfUp(speed);
+        String before = mWindBeforeDirection[index];
+        String after = mWindAfterDirection[index];
+        if (before == null || after == null) {
+            String rendered = String.format(mWindFormat, (double) index, DIRECTION_MARKER);
+            int marker = rendered.indexOf(DIRECTION_MARKER);
+            after = rendered.substring(marker + DIRECTION_MARKER.length());
+            before = rendered.substring(0, marker);
+            mWindAfterDirection[index] = after;
+            mWindBeforeDirection[index] = before;
+        }
+        return out.append(before).append(direction).append(after);
+    }
+
+    /**
+     * Works out the compass direction the wind blows from. North covers everything from 337.5
+     * degrees up and everything below 22.5 degrees, including negative bearings; the other
+     * sectors each cover the 45 degrees centred on their bearing.
+     *
+     * @param degrees Degrees as measured on a compass
+     * @return "N", "NE", ... "NW", or "Unknown" if degrees is not a number
+     */
+    public static String getWindDirection(float degrees) {
+        if (Float.isNaN(degrees)) {
+            return UNKNOWN_DIRECTION;
+        }
+        if (degrees < 22.5f || degrees >= 337.5f) {
+            return COMPASS_SECTORS[0];
+        }
+        return COMPASS_SECTORS[1 + (int) ((degrees - 22.5) / 45)];
+    }
+}